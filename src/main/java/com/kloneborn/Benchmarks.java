@@ -0,0 +1,229 @@
+package com.kloneborn;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javafx.geometry.Point2D;
+
+/**
+ * Small self-timed benchmarks for the simulation hot paths. These are not a
+ * replacement for a proper harness but are enough to compare two approaches
+ * on the same machine.
+ * <p>
+ * <b>Usage:</b> {@code java -cp <classpath> com.kloneborn.Benchmarks [case]}
+ * where {@code case} is one of the names listed in {@link #main}. Running
+ * without arguments runs every case.
+ * </p>
+ */
+public final class Benchmarks {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 10;
+
+    private Benchmarks() {
+    }
+
+    public static void main(String[] args) {
+        String only = args.length > 0 ? args[0] : null;
+        if (only == null || only.equals("heading"))
+            heading(10_000, 100);
+        if (only == null || only.equals("reorder"))
+            reorder(20_000, 3);
+        if (only == null || only.equals("parallel"))
+            parallel(20_000, 3);
+        if (only == null || only.equals("analytics"))
+            analytics(20_000, 10);
+        if (only == null || only.equals("spawn"))
+            spawn(100_000);
+    }
+
+    /**
+     * Compares the per tick trigonometry of the original angle based wander and
+     * heading ({@code cos}, {@code sin}, {@code atan2}, {@code toDegrees}) with
+     * the table driven rotation of a unit vector used by {@link Vehicle}.
+     */
+    static void heading(int vehicles, int ticks) {
+        double[] wanderAngle = new double[vehicles];
+        double[] vx = new double[vehicles];
+        double[] vy = new double[vehicles];
+        Random random = new Random(1);
+        for (int i = 0; i < vehicles; i++) {
+            wanderAngle[i] = random.nextDouble() * 2 * Math.PI;
+            vx[i] = random.nextDouble() - 0.5;
+            vy[i] = random.nextDouble() - 0.5;
+        }
+
+        double legacy = time(() -> {
+            double sink = 0;
+            for (int t = 0; t < ticks; t++) {
+                for (int i = 0; i < vehicles; i++) {
+                    wanderAngle[i] += ThreadLocalRandom.current().nextDouble() * 0.1 - 0.05;
+                    sink += Math.cos(wanderAngle[i]) + Math.sin(wanderAngle[i]);
+                    sink += Math.toDegrees(Math.atan2(vy[i], vx[i]) + Math.PI / 2);
+                }
+            }
+            return sink;
+        });
+
+        List<Vehicle> fleet = new ArrayList<>(vehicles);
+        for (int i = 0; i < vehicles; i++) {
+            Vehicle vehicle = new Vehicle(0, 0);
+            vehicle.setVelocity(new Point2D(vx[i], vy[i]));
+            fleet.add(vehicle);
+        }
+        double vector = time(() -> {
+            double sink = 0;
+            for (int t = 0; t < ticks; t++) {
+                for (int i = 0; i < vehicles; i++) {
+                    sink += fleet.get(i).wander().getX();
+                    // Same normalisation Vehicle.update performs for the heading
+                    sink += vx[i] / Math.sqrt(vx[i] * vx[i] + vy[i] * vy[i]);
+                }
+            }
+            return sink;
+        });
+
+        report("heading/trig", legacy, vehicles * (long) ticks);
+        report("heading/vector", vector, vehicles * (long) ticks);
+        System.out.printf("heading: vector path takes %.1f%% of the trig path%n", 100.0 * vector / legacy);
+    }
+
+    /**
+     * Ticks the same flock with and without the periodic Z-order pass. Spawn
+     * order is random, so without the pass list order stays unrelated to space.
+     * Cohesion is left off so the flock does not collapse into clumps while it
+     * is being measured.
+     */
+    static void reorder(int count, int ticks) {
+        double side = Math.sqrt(count) * 40;
+        for (int interval : new int[] { 0, Flock.DEFAULT_REORDER_INTERVAL }) {
+            Flock flock = scatter(count, side);
+            flock.setReorderInterval(interval);
+            double nanos = time(() -> {
+                for (int t = 0; t < ticks; t++)
+                    flock.update();
+                return flock.getTicks();
+            });
+            report("reorder/interval=" + interval, nanos, count * (long) ticks);
+        }
+    }
+
+    /**
+     * Compares the sequential tick with the parallel one used while fast
+     * forwarding.
+     */
+    static void parallel(int count, int ticks) {
+        double side = Math.sqrt(count) * 40;
+        for (boolean parallel : new boolean[] { false, true }) {
+            Flock flock = scatter(count, side);
+            flock.setParallel(parallel);
+            double nanos = time(() -> {
+                for (int t = 0; t < ticks; t++)
+                    flock.update();
+                return flock.getTicks();
+            });
+            report("parallel=" + parallel, nanos, count * (long) ticks);
+        }
+    }
+
+    /**
+     * Measures the overhead of {@link FlockAnalytics} as a percentage of tick
+     * time, sampling every tick and every tenth tick, against an after the fact
+     * {@link FlockMetrics#measure} on every tick. Interval 0 is the baseline
+     * without analytics.
+     */
+    static void analytics(int count, int ticks) {
+        double side = Math.sqrt(count) * 40;
+        // Every variant starts from the same fresh flock, which gets slower as it clumps
+        double base = 0;
+        for (int interval : new int[] { 0, 1, 10 }) {
+            Flock flock = scatter(count, side);
+            if (interval > 0)
+                flock.setAnalytics(new FlockAnalytics(interval, Boid.COHESION_RADIUS));
+            double nanos = time(() -> {
+                for (int t = 0; t < ticks; t++)
+                    flock.update();
+                return flock.getTicks();
+            });
+            report("analytics/interval=" + interval, nanos, count * (long) ticks);
+            if (interval == 0)
+                base = nanos;
+            else
+                System.out.printf("%-24s %+9.1f %%%n", "  overhead", 100 * (nanos - base) / base);
+        }
+        Flock flock = scatter(count, side);
+        double measured = time(() -> {
+            double sink = 0;
+            for (int t = 0; t < ticks; t++) {
+                flock.update();
+                sink += FlockMetrics.measure(flock.getBoids(), side, side, Boid.COHESION_RADIUS).getPolarization();
+            }
+            return sink;
+        });
+        report("analytics/measure", measured, count * (long) ticks);
+        System.out.printf("%-24s %+9.1f %%%n", "  overhead", 100 * (measured - base) / base);
+    }
+
+    /**
+     * Compares {@link BoidUtils.BoidGenerator} with {@link BoidSpawner} in each
+     * layout, reporting the time per boid created.
+     */
+    static void spawn(int count) {
+        double side = Math.sqrt(count) * 40;
+        double legacy = time(() -> BoidUtils.BoidGenerator.generateBoids(1, count, side, side, 2).size());
+        report("spawn/generator", legacy, count);
+        for (BoidSpawner.Layout layout : BoidSpawner.Layout.values()) {
+            BoidSpawner spawner = new BoidSpawner(side, side, 1);
+            spawner.setLayout(layout);
+            double nanos = time(() -> spawner.spawn(count).size());
+            report("spawn/" + layout.name().toLowerCase(), nanos, count);
+        }
+    }
+
+    /**
+     * A flock of {@code count} aligning and separating boids spread uniformly
+     * over a square world.
+     */
+    static Flock scatter(int count, double side) {
+        Flock flock = new Flock(side, side);
+        flock.setAligning(true);
+        flock.setSeparating(true);
+        Random random = new Random(7);
+        for (int i = 0; i < count; i++) {
+            Boid boid = new Boid(random.nextDouble() * side, random.nextDouble() * side);
+            boid.setVelocity(BoidUtils.randVelocity(2));
+            flock.getBoids().add(boid);
+        }
+        return flock;
+    }
+
+    /**
+     * Runs {@code body} for the warmup rounds and returns the mean wall time of
+     * the measured rounds in nanoseconds.
+     */
+    static double time(Workload body) {
+        double sink = 0;
+        for (int i = 0; i < WARMUP_ROUNDS; i++)
+            sink += body.run();
+        long total = 0;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            long start = System.nanoTime();
+            sink += body.run();
+            total += System.nanoTime() - start;
+        }
+        // Keep the result observable so the JIT cannot drop the work
+        if (sink == Double.MIN_VALUE)
+            System.out.println(sink);
+        return total / (double) MEASURED_ROUNDS;
+    }
+
+    static void report(String name, double nanos, long operations) {
+        System.out.printf("%-24s %10.3f ms/round %8.2f ns/op%n", name, nanos / 1e6, nanos / operations);
+    }
+
+    @FunctionalInterface
+    interface Workload {
+        double run();
+    }
+}
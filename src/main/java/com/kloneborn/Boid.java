@@ -2,6 +2,7 @@ package com.kloneborn;
 
 import java.util.List;
 import java.util.ResourceBundle;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.ObjectProperty;
@@ -12,27 +13,135 @@ import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.paint.Color;
 
 public class Boid extends Vehicle {
+    public static final double ALIGNMENT_RADIUS = 100.0; // px
+    public static final double COHESION_RADIUS = 50.0; // px
+    public static final double RADIUS = 10.0; // px
+
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
 
     public final FXProperties properties = new FXProperties();
 
+    // Stays with the boid when the flock is reordered in memory or it moves to another tile
+    private int id;
+
+    // Position in the flock list, set by Flock on ticks that sample analytics
+    int slot;
+
+    // Picks the ticks this boid steers on when staggered, handed out by the flock it first ticks in
+    int staggerKey = -1;
+
+    // Flocking force from the last tick this boid recomputed it
+    private Point2D steering = Point2D.ZERO;
+
+    private Species species = Species.DEFAULT;
+
+    // Flock moving this boid in the update in progress, and its obstacles if it has any
+    private Flock mover;
+    private DistanceField obstacles;
+
     public Boid(double x, double y) {
-        super(new Point2D(x, y), new Point2D(0, 0), new Point2D(0, 0), 10, 0.1, 4.0);
+        this(x, y, NEXT_ID.getAndIncrement());
+    }
+
+    /**
+     * @param id An id taken from {@link #reserveIds(int)}.
+     */
+    Boid(double x, double y, int id) {
+        super(new Point2D(x, y), new Point2D(0, 0), new Point2D(0, 0), RADIUS, 0.1, 4.0);
+        this.id = id;
+    }
+
+    /**
+     * Reserve {@code count} consecutive ids for boids created on several
+     * threads, so which boid gets which id does not depend on the order the
+     * threads run in.
+     *
+     * @return The first of the ids.
+     */
+    static int reserveIds(int count) {
+        return NEXT_ID.getAndAdd(count);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * For a boid reused to stand in for one arriving from another process.
+     */
+    void setId(int id) {
+        this.id = id;
+    }
+
+    public Species getSpecies() {
+        return species;
+    }
+
+    public void setSpecies(Species species) {
+        this.species = species;
+    }
+
+    public Point2D getSteering() {
+        return steering;
+    }
+
+    public void setSteering(Point2D steering) {
+        this.steering = steering;
     }
 
     @Override
-    void update() {
+    void update(double step, int substeps) {
         applyToroid(properties.getWorldWidth(), properties.getWorldHeight());
-        super.update();
+        super.update(step, substeps);
+    }
+
+    /**
+     * Like {@link #update(double, int)}, but limited by the
+     * {@link Flock#getParameters() parameters} of {@code flock}, wrapping around
+     * its world and steering away from its obstacles as in
+     * {@link #avoidObstacles(DistanceField, double)}. The obstacles are looked
+     * up again at every substep, so with enough substeps a long tick does not
+     * carry the boid through one.
+     */
+    void update(double step, int substeps, Flock flock) {
+        FlockParameters parameters = flock.getParameters();
+        this.mover = flock;
+        this.obstacles = flock.getObstacles().isEmpty() ? null : flock.getObstacles();
+        try {
+            applyToroid(flock.getWidth(), flock.getHeight());
+            update(step, substeps, parameters.getMaxSpeed(), parameters.getMaxForce());
+        } finally {
+            this.mover = null;
+            this.obstacles = null;
+        }
+    }
+
+    @Override
+    protected Point2D substepForce() {
+        return obstacles != null
+                ? obstacleForce(obstacles, Flock.OBSTACLE_WEIGHT, mover.getParameters().getMaxForce())
+                : Point2D.ZERO;
+    }
+
+    /**
+     * Wrap around the world after every substep rather than once per tick.
+     */
+    @Override
+    protected void afterSubstep() {
+        if (mover != null)
+            applyToroid(mover.getWidth(), mover.getHeight());
+        else
+            applyToroid(properties.getWorldWidth(), properties.getWorldHeight());
     }
 
     @Override
     void draw(GraphicsContext gc) {
 
-        gc.setFill(Color.rgb(175, 175, 175));
+        gc.setFill(species.getFill());
         gc.setStroke(Color.BLACK);
         gc.save();
-        gc.translate(location.getX(), location.getY());
-        gc.rotate(Math.toDegrees(angle));
+        // Rotate by (angle + 90deg) straight from the heading vector, no trig needed
+        gc.transform(-headingY, headingX, -headingX, -headingY, location.getX(), location.getY());
         double halfR = getRadius() / 2.0;
         gc.beginPath();
         gc.moveTo(0, -2 * halfR);
@@ -44,6 +153,16 @@ public class Boid extends Vehicle {
         gc.restore();
     }
 
+    /**
+     * Cheaper stand-in for {@link #draw(GraphicsContext)}: a single square with
+     * no path or transform.
+     */
+    void drawDot(GraphicsContext gc) {
+        gc.setFill(species.getFill());
+        double half = getRadius() / 4.0;
+        gc.fillRect(location.getX() - half, location.getY() - half, 2 * half, 2 * half);
+    }
+
     public void applyToroid(double width, double height) {
         if (location.getX() > width)
             this.location = new Point2D(0, location.getY());
@@ -56,10 +175,37 @@ public class Boid extends Vehicle {
     }
 
     public void align(List<Boid> flock) {
-        double preceptRad = 100.0; // px
+        align(flock, FlockParameters.DEFAULT, Integer.MAX_VALUE, 0, 1, 1.0);
+    }
+
+    /**
+     * Steer towards the average heading of the neighbours in {@code flock},
+     * looking at no more than {@code maxNeighbors} of them.
+     *
+     * @param flock        Candidate neighbours.
+     * @param parameters   Speed, force and behaviour strengths to steer by,
+     *                     shared by the whole flock.
+     * @param maxNeighbors Stop scanning once this many neighbours were used.
+     * @param offset       Index to start scanning from.
+     * @param stride       Step from one scanned candidate to the next, wrapping
+     *                     around; must be coprime to the number of candidates,
+     *                     see {@link #coprimeStride(int, int)}. Candidates come
+     *                     in grid order, so a random offset and stride spread a
+     *                     capped sample over the whole neighbourhood instead of
+     *                     the cells on one side of it.
+     * @param weight       Scale applied to the resulting steering force.
+     * @return {@code true} if the cap stopped the scan before every candidate
+     *         was looked at.
+     */
+    public boolean align(List<Boid> flock, FlockParameters parameters, int maxNeighbors, int offset, int stride,
+            double weight) {
+        double preceptRad = ALIGNMENT_RADIUS;
         Point2D steering = new Point2D(0, 0);
         int total = 0;
-        for (Boid boid : flock) {
+        int n = flock.size();
+        int k = 0;
+        for (int i = offset; k < n && total < maxNeighbors; k++, i = next(i, stride, n)) {
+            Boid boid = flock.get(i);
             double d = location.distance(boid.location);
             if (boid != this && d <= preceptRad) {
                 steering = steering.add(boid.velocity);
@@ -68,19 +214,33 @@ public class Boid extends Vehicle {
         }
         if (total > 0) {
             steering = steering.multiply(1.0 / total);
-            steering = steering.normalize().multiply(maxSpeed);
+            steering = steering.normalize().multiply(parameters.getMaxSpeed());
             steering = steering.subtract(velocity);
-            steering = limit(steering, properties.getAlignmentForce());
+            steering = limit(steering, parameters.getAlignmentForce());
         }
-        acceleration = acceleration.add(steering);
+        acceleration = acceleration.add(steering.multiply(weight));
+        return k < n;
     }
 
     public void cohere(List<Boid> flock) {
-        double neighborDist = 50.0;
+        cohere(flock, FlockParameters.DEFAULT, Integer.MAX_VALUE, 0, 1, 1.0);
+    }
+
+    /**
+     * Steer towards the centre of the neighbours in {@code flock}. See
+     * {@link #align(List, FlockParameters, int, int, int, double)} for the
+     * meaning of the arguments.
+     */
+    public boolean cohere(List<Boid> flock, FlockParameters parameters, int maxNeighbors, int offset, int stride,
+            double weight) {
+        double neighborDist = COHESION_RADIUS;
         Point2D sum = new Point2D(0, 0);
         int count = 0;
+        int n = flock.size();
 
-        for (Boid other : flock) {
+        int k = 0;
+        for (int i = offset; k < n && count < maxNeighbors; k++, i = next(i, stride, n)) {
+            Boid other = flock.get(i);
             double distance = location.distance(other.location);
 
             if (other != this && distance > 0 && distance < neighborDist) {
@@ -91,16 +251,31 @@ public class Boid extends Vehicle {
 
         if (count > 0) {
             sum = sum.multiply(1.0 / count);
-            seek(sum);
+            Point2D desired = sum.subtract(location).normalize().multiply(parameters.getMaxSpeed());
+            applyForce(desired.subtract(velocity).multiply(parameters.getCohesionForce() * weight));
         }
+        return k < n;
     }
 
     public void seperate(List<Boid> flock) {
-        float desiredSeparation = (float) (properties.getSize() * 2);
+        seperate(flock, FlockParameters.DEFAULT, Integer.MAX_VALUE, 0, 1, 1.0);
+    }
+
+    /**
+     * Steer away from neighbours that are too close. See
+     * {@link #align(List, FlockParameters, int, int, int, double)} for the
+     * meaning of the arguments.
+     */
+    public boolean seperate(List<Boid> flock, FlockParameters parameters, int maxNeighbors, int offset, int stride,
+            double weight) {
+        float desiredSeparation = (float) (radius * 2);
         Point2D sum = new Point2D(0, 0);
         int count = 0;
+        int n = flock.size();
 
-        for (Boid other : flock) {
+        int k = 0;
+        for (int i = offset; k < n && count < maxNeighbors; k++, i = next(i, stride, n)) {
+            Boid other = flock.get(i);
             double distance = location.distance(other.location);
             if (other != this && distance > 0 && distance < desiredSeparation) {
                 Point2D diff = location.subtract(other.location);
@@ -112,11 +287,89 @@ public class Boid extends Vehicle {
 
         if (count > 0) {
             sum = sum.multiply(1.0 / count);
-            sum = sum.normalize().multiply(maxSpeed);
+            sum = sum.normalize().multiply(parameters.getMaxSpeed());
             Point2D steer = sum.subtract(velocity);
-            steer = limit(steer, maxForce);
-            acceleration = acceleration.add(steer.multiply(properties.getSeparationForce()));
+            steer = limit(steer, parameters.getMaxForce());
+            acceleration = acceleration.add(steer.multiply(parameters.getSeparationForce() * weight));
         }
+        return k < n;
+    }
+
+    /**
+     * Flee from every boid in {@code others} within the alignment radius, used
+     * for species this boid's species avoids. See
+     * {@link #align(List, FlockParameters, int, int, int, double)} for the
+     * meaning of the arguments.
+     */
+    public boolean avoid(List<Boid> others, FlockParameters parameters, int maxNeighbors, int offset, int stride,
+            double weight) {
+        Point2D sum = new Point2D(0, 0);
+        int count = 0;
+        int n = others.size();
+
+        int k = 0;
+        for (int i = offset; k < n && count < maxNeighbors; k++, i = next(i, stride, n)) {
+            Boid other = others.get(i);
+            double distance = location.distance(other.location);
+            if (other != this && distance > 0 && distance < ALIGNMENT_RADIUS) {
+                // Closer threats push harder
+                sum = sum.add(location.subtract(other.location).multiply(1.0 / (distance * distance)));
+                count++;
+            }
+        }
+
+        if (count > 0) {
+            sum = sum.normalize().multiply(parameters.getMaxSpeed());
+            Point2D steer = limit(sum.subtract(velocity), parameters.getMaxForce());
+            acceleration = acceleration.add(steer.multiply(weight));
+        }
+        return k < n;
+    }
+
+    /**
+     * @param start Any value in {@code [0, n)}.
+     * @return The first stride from {@code start} on, wrapping around, that is
+     *         coprime to {@code n}, so stepping by it visits all {@code n}
+     *         candidates before repeating one.
+     */
+    static int coprimeStride(int n, int start) {
+        int stride = Math.max(1, start);
+        while (gcd(stride, n) != 1)
+            stride = stride + 1 >= n ? 1 : stride + 1;
+        return stride;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    private static int next(int i, int stride, int n) {
+        i += stride;
+        return i >= n ? i - n : i;
+    }
+
+    /**
+     * Steer away from obstacles using a single lookup into their distance
+     * field. The push grows from nothing at the edge of the field's range to
+     * {@code weight * maxForce} at the obstacle surface, and keeps growing inside
+     * it.
+     */
+    public void avoidObstacles(DistanceField field, double weight) {
+        acceleration = acceleration.add(obstacleForce(field, weight, maxForce));
+    }
+
+    private Point2D obstacleForce(DistanceField field, double weight, double maxForce) {
+        int cell = field.cellAt(location.getX(), location.getY());
+        double d = field.distance(cell);
+        if (d >= field.getRange())
+            return Point2D.ZERO;
+        double strength = weight * maxForce * (1.0 - d / field.getRange());
+        return new Point2D(field.gradientX(cell) * strength, field.gradientY(cell) * strength);
     }
 
     public void flock(List<Boid> neighbors) {
@@ -159,6 +412,38 @@ public class Boid extends Vehicle {
         }
     }
 
+    /**
+     * The {@code system} bundle defaults every {@link FXProperties} starts from,
+     * parsed once when the first boid is created instead of once per boid.
+     */
+    private static final class Defaults {
+        static final Defaults INSTANCE = new Defaults(ResourceBundle.getBundle("com.kloneborn.system"));
+
+        final double maxSpeed;
+        final double maxForce;
+        final double alignmentForce;
+        final double cohesionForce;
+        final double separationForce;
+        final EdgePolicy edgePolicy;
+        final ShapePolicy shapePolicy;
+        final Color fill;
+        final double worldWidth;
+        final double worldHeight;
+
+        private Defaults(ResourceBundle bundle) {
+            maxSpeed = Double.parseDouble(bundle.getString("default.slider.max_speed"));
+            maxForce = Double.parseDouble(bundle.getString("default.slider.max_force"));
+            alignmentForce = Double.parseDouble(bundle.getString("default.slider.alignment_force"));
+            cohesionForce = Double.parseDouble(bundle.getString("default.slider.cohesion_force"));
+            separationForce = Double.parseDouble(bundle.getString("default.slider.seperation_force"));
+            edgePolicy = EdgePolicy.fromString(bundle.getString("default.radio_buttons.edge_policy"));
+            shapePolicy = ShapePolicy.fromString(bundle.getString("default.radio_buttons.shape_policy"));
+            fill = Color.web(bundle.getString("default.color_picker.fill"));
+            worldWidth = Double.parseDouble(bundle.getString("default.property.world_width"));
+            worldHeight = Double.parseDouble(bundle.getString("default.property.world_height"));
+        }
+    }
+
     public class FXProperties {
         // JavaFX properties for sliders
         private final DoubleProperty maxSpeedProperty = new SimpleDoubleProperty();
@@ -182,26 +467,25 @@ public class Boid extends Vehicle {
 
         // Constructor
         public FXProperties() {
-            ResourceBundle bundle = ResourceBundle.getBundle("com.kloneborn.system");
+            Defaults defaults = Defaults.INSTANCE;
 
             // Set values for sliders
-            maxSpeedProperty.set(Double.parseDouble(bundle.getString("default.slider.max_speed")));
-            maxForceProperty.set(Double.parseDouble(bundle.getString("default.slider.max_force")));
-            alignmentForceProperty.set(Double.parseDouble(bundle.getString("default.slider.alignment_force")));
-            cohesionForceProperty.set(Double.parseDouble(bundle.getString("default.slider.cohesion_force")));
-            separationForceProperty.set(Double.parseDouble(bundle.getString("default.slider.seperation_force")));
+            maxSpeedProperty.set(defaults.maxSpeed);
+            maxForceProperty.set(defaults.maxForce);
+            alignmentForceProperty.set(defaults.alignmentForce);
+            cohesionForceProperty.set(defaults.cohesionForce);
+            separationForceProperty.set(defaults.separationForce);
 
             // Set values for radio buttons (edge and shape policy)
-            edgePolicyProperty.set(EdgePolicy.fromString(bundle.getString("default.radio_buttons.edge_policy")));
-            shapePolicyProperty.set(ShapePolicy.fromString(bundle.getString("default.radio_buttons.shape_policy")));
+            edgePolicyProperty.set(defaults.edgePolicy);
+            shapePolicyProperty.set(defaults.shapePolicy);
 
             // Set value for color picker
-            String defaultColor = bundle.getString("default.color_picker.fill");
-            fillProperty.set(javafx.scene.paint.Color.web(defaultColor));
+            fillProperty.set(defaults.fill);
 
             // Set properties
-            setWorldWidth(Double.parseDouble(bundle.getString("default.property.world_width")));
-            setWorldHeight(Double.parseDouble(bundle.getString("default.property.world_height")));
+            setWorldWidth(defaults.worldWidth);
+            setWorldHeight(defaults.worldHeight);
 
             setSize(10.0);
             maxSpeedProperty.addListener((obv, old, nvw) -> Boid.this.setMaxSpeed(nvw.doubleValue()));
@@ -0,0 +1,355 @@
+package com.kloneborn;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+import javafx.geometry.Point2D;
+
+/**
+ * Creates boids in bulk, spread over the world in one of several
+ * {@link Layout layouts}.
+ * <p>
+ * Boids are built in chunks of {@link #CHUNK_SIZE} on the common pool. Every
+ * chunk draws from its own {@link SplittableRandom} split off the spawner's
+ * stream before any chunk starts, so the boids depend only on the seed and the
+ * sequence of calls, not on the number of threads or the order chunks run in.
+ * The same goes for their ids, which are reserved as one block per call and
+ * handed out by position.
+ * </p>
+ */
+public class BoidSpawner {
+    public static final int CHUNK_SIZE = 4096;
+    // Candidates tried around an active point before Bridson's algorithm retires it
+    private static final int POISSON_ATTEMPTS = 30;
+    // Bridson packs about 0.7 points per squared minimum distance; aim a little under
+    private static final double POISSON_DENSITY = 0.6;
+
+    /**
+     * Where new boids are placed.
+     * <ul>
+     * <li>{@code UNIFORM}: anywhere in the world with a random heading.</li>
+     * <li>{@code CLUSTERS}: Gaussian blobs around randomly placed centres,
+     * wrapped around the edges of the world.</li>
+     * <li>{@code POISSON_DISK}: evenly spread with no two boids closer than
+     * the minimum distance. The points are sampled on one thread.</li>
+     * <li>{@code RING}: a band around the centre of the world, every boid
+     * heading along it so the flock starts out milling.</li>
+     * </ul>
+     */
+    public enum Layout {
+        UNIFORM, CLUSTERS, POISSON_DISK, RING;
+
+        public static Layout fromString(String value) {
+            switch (value.toLowerCase()) {
+                case "uniform":
+                    return UNIFORM;
+                case "clusters":
+                    return CLUSTERS;
+                case "poisson_disk":
+                    return POISSON_DISK;
+                case "ring":
+                    return RING;
+                default:
+                    throw new IllegalArgumentException("Invalid spawn layout: " + value);
+            }
+        }
+    }
+
+    private final double width;
+    private final double height;
+    private final SplittableRandom random;
+    private Layout layout = Layout.UNIFORM;
+    private double speed = 2.0;
+    private List<Species> species = List.of(Species.DEFAULT);
+    private int clusters = 8;
+    private double clusterSpread;
+    private double minDistance;
+    private double ringRadius;
+    private double ringWidth;
+    private double lastSpawnTime;
+
+    public BoidSpawner(double width, double height, long seed) {
+        this.width = width;
+        this.height = height;
+        this.random = new SplittableRandom(seed);
+    }
+
+    /**
+     * Create {@code count} boids in the current layout.
+     *
+     * @return The boids, in a list that cannot grow or shrink.
+     */
+    public List<Boid> spawn(int count) {
+        long start = System.nanoTime();
+        if (count == 0)
+            return List.of();
+        Boid[] boids = new Boid[count];
+        int chunks = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        // Split up front so the streams do not depend on which thread gets which chunk
+        SplittableRandom[] streams = new SplittableRandom[chunks];
+        for (int k = 0; k < chunks; k++)
+            streams[k] = random.split();
+        double[] points = layout == Layout.POISSON_DISK ? poissonDisk(count, random.split()) : null;
+        double[] centres = layout == Layout.CLUSTERS ? clusterCentres(random.split()) : null;
+        int firstId = Boid.reserveIds(count);
+        IntStream.range(0, chunks).parallel().forEach(k -> {
+            SplittableRandom stream = streams[k];
+            for (int i = k * CHUNK_SIZE, end = Math.min(count, i + CHUNK_SIZE); i < end; i++)
+                boids[i] = create(i, firstId + i, stream, points, centres);
+        });
+        lastSpawnTime = (System.nanoTime() - start) / 1_000_000.0;
+        return Arrays.asList(boids);
+    }
+
+    private Boid create(int i, int id, SplittableRandom stream, double[] points, double[] centres) {
+        double x, y, heading;
+        switch (layout) {
+            case CLUSTERS: {
+                int c = stream.nextInt(clusters);
+                double spread = clusterSpread > 0 ? clusterSpread : 0.05 * Math.min(width, height);
+                x = wrap(centres[2 * c] + gaussian(stream) * spread, width);
+                y = wrap(centres[2 * c + 1] + gaussian(stream) * spread, height);
+                heading = stream.nextDouble() * 2 * Math.PI;
+                break;
+            }
+            case POISSON_DISK:
+                x = points[2 * i];
+                y = points[2 * i + 1];
+                heading = stream.nextDouble() * 2 * Math.PI;
+                break;
+            case RING: {
+                double side = Math.min(width, height);
+                double radius = (ringRadius > 0 ? ringRadius : 0.35 * side)
+                        + (stream.nextDouble() - 0.5) * (ringWidth > 0 ? ringWidth : 0.05 * side);
+                double angle = stream.nextDouble() * 2 * Math.PI;
+                x = width / 2 + radius * Math.cos(angle);
+                y = height / 2 + radius * Math.sin(angle);
+                heading = angle + Math.PI / 2;
+                break;
+            }
+            default:
+                x = stream.nextDouble() * width;
+                y = stream.nextDouble() * height;
+                heading = stream.nextDouble() * 2 * Math.PI;
+        }
+        Boid boid = new Boid(x, y, id);
+        boid.setVelocity(new Point2D(speed * Math.cos(heading), speed * Math.sin(heading)));
+        boid.setSpecies(Species.pick(species, stream.nextDouble()));
+        return boid;
+    }
+
+    private double[] clusterCentres(SplittableRandom stream) {
+        double[] centres = new double[2 * clusters];
+        for (int c = 0; c < clusters; c++) {
+            centres[2 * c] = stream.nextDouble() * width;
+            centres[2 * c + 1] = stream.nextDouble() * height;
+        }
+        return centres;
+    }
+
+    /**
+     * Sample the whole world with Bridson's algorithm and keep a random
+     * {@code count} of the points. Without a minimum distance one is chosen so
+     * the world fills with somewhat more points than needed, and shrunk until
+     * it does.
+     */
+    private double[] poissonDisk(int count, SplittableRandom stream) {
+        double radius = minDistance > 0 ? minDistance : Math.sqrt(POISSON_DENSITY * width * height / count);
+        while (true) {
+            double[] points = bridson(radius, stream);
+            int n = points.length / 2;
+            if (n >= count) {
+                // Partial Fisher-Yates shuffle; the first count points are the sample
+                for (int i = 0; i < count; i++) {
+                    int j = i + stream.nextInt(n - i);
+                    double px = points[2 * i], py = points[2 * i + 1];
+                    points[2 * i] = points[2 * j];
+                    points[2 * i + 1] = points[2 * j + 1];
+                    points[2 * j] = px;
+                    points[2 * j + 1] = py;
+                }
+                return points;
+            }
+            if (minDistance > 0)
+                throw new IllegalArgumentException("Only " + n + " boids fit " + minDistance + " apart, not " + count);
+            radius *= 0.9;
+        }
+    }
+
+    private double[] bridson(double radius, SplittableRandom stream) {
+        // Cells this small hold at most one point
+        double cell = radius / Math.sqrt(2);
+        int cols = Math.max(1, (int) Math.ceil(width / cell));
+        int rows = Math.max(1, (int) Math.ceil(height / cell));
+        int[] grid = new int[cols * rows];
+        Arrays.fill(grid, -1);
+        double[] points = new double[64];
+        int[] active = new int[32];
+        int n = 0, activeCount = 0;
+        double radiusSq = radius * radius;
+
+        double x0 = stream.nextDouble() * width, y0 = stream.nextDouble() * height;
+        points[0] = x0;
+        points[1] = y0;
+        grid[(int) (y0 / cell) * cols + (int) (x0 / cell)] = n;
+        active[activeCount++] = n++;
+
+        while (activeCount > 0) {
+            int a = stream.nextInt(activeCount);
+            int p = active[a];
+            boolean placed = false;
+            for (int attempt = 0; attempt < POISSON_ATTEMPTS && !placed; attempt++) {
+                double angle = stream.nextDouble() * 2 * Math.PI;
+                double d = radius * (1 + stream.nextDouble());
+                double x = points[2 * p] + d * Math.cos(angle), y = points[2 * p + 1] + d * Math.sin(angle);
+                if (x < 0 || x >= width || y < 0 || y >= height)
+                    continue;
+                int col = (int) (x / cell), row = (int) (y / cell);
+                boolean free = true;
+                for (int r = Math.max(0, row - 2); r <= Math.min(rows - 1, row + 2) && free; r++) {
+                    for (int c = Math.max(0, col - 2); c <= Math.min(cols - 1, col + 2); c++) {
+                        int q = grid[r * cols + c];
+                        if (q < 0)
+                            continue;
+                        double dx = points[2 * q] - x, dy = points[2 * q + 1] - y;
+                        if (dx * dx + dy * dy < radiusSq) {
+                            free = false;
+                            break;
+                        }
+                    }
+                }
+                if (!free)
+                    continue;
+                if (2 * n + 2 > points.length)
+                    points = Arrays.copyOf(points, points.length * 2);
+                if (activeCount == active.length)
+                    active = Arrays.copyOf(active, active.length * 2);
+                points[2 * n] = x;
+                points[2 * n + 1] = y;
+                grid[row * cols + col] = n;
+                active[activeCount++] = n++;
+                placed = true;
+            }
+            if (!placed)
+                active[a] = active[--activeCount];
+        }
+        return Arrays.copyOf(points, 2 * n);
+    }
+
+    private static double wrap(double value, double size) {
+        return value - size * Math.floor(value / size);
+    }
+
+    /**
+     * Standard normal sample by the polar method; {@link SplittableRandom} has
+     * no Gaussian of its own before Java 17.
+     */
+    private static double gaussian(SplittableRandom stream) {
+        double u, v, s;
+        do {
+            u = 2 * stream.nextDouble() - 1;
+            v = 2 * stream.nextDouble() - 1;
+            s = u * u + v * v;
+        } while (s >= 1 || s == 0);
+        return u * Math.sqrt(-2 * Math.log(s) / s);
+    }
+
+    public Layout getLayout() {
+        return layout;
+    }
+
+    public void setLayout(Layout layout) {
+        this.layout = layout;
+    }
+
+    /**
+     * @return Starting speed of new boids.
+     */
+    public double getSpeed() {
+        return speed;
+    }
+
+    public void setSpeed(double speed) {
+        this.speed = speed;
+    }
+
+    public List<Species> getSpecies() {
+        return species;
+    }
+
+    /**
+     * @param species Species new boids are picked from in proportion to their
+     *                shares.
+     */
+    public void setSpecies(List<Species> species) {
+        this.species = species;
+    }
+
+    public int getClusters() {
+        return clusters;
+    }
+
+    public void setClusters(int clusters) {
+        if (clusters < 1)
+            throw new IllegalArgumentException("Need at least one cluster, got " + clusters);
+        this.clusters = clusters;
+    }
+
+    /**
+     * @return Standard deviation of the distance from a boid to its cluster
+     *         centre along each axis, {@code 0} for 5% of the shorter side of
+     *         the world.
+     */
+    public double getClusterSpread() {
+        return clusterSpread;
+    }
+
+    public void setClusterSpread(double clusterSpread) {
+        this.clusterSpread = clusterSpread;
+    }
+
+    /**
+     * @return Minimum distance between Poisson disk boids, {@code 0} to fit it
+     *         to the count.
+     */
+    public double getMinDistance() {
+        return minDistance;
+    }
+
+    public void setMinDistance(double minDistance) {
+        this.minDistance = minDistance;
+    }
+
+    /**
+     * @return Radius of the ring, {@code 0} for 35% of the shorter side of the
+     *         world.
+     */
+    public double getRingRadius() {
+        return ringRadius;
+    }
+
+    public void setRingRadius(double ringRadius) {
+        this.ringRadius = ringRadius;
+    }
+
+    /**
+     * @return Width of the ring, {@code 0} for 5% of the shorter side of the
+     *         world.
+     */
+    public double getRingWidth() {
+        return ringWidth;
+    }
+
+    public void setRingWidth(double ringWidth) {
+        this.ringWidth = ringWidth;
+    }
+
+    /**
+     * @return Wall time of the last {@link #spawn(int)} in milliseconds.
+     */
+    public double getLastSpawnTime() {
+        return lastSpawnTime;
+    }
+}
@@ -3,6 +3,7 @@ package com.kloneborn;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 import javafx.geometry.Point2D;
 
@@ -25,6 +26,10 @@ public class BoidUtils {
         return vector; // No need to limit if within the range
     }
 
+    /**
+     * One boid at a time on the calling thread. {@link BoidSpawner} fills large
+     * flocks in parallel and offers more layouts.
+     */
     public static class BoidGenerator {
 
         public static List<Boid> generateBoids(int seed, int numberOfBoids, double worldWidth, double worldHeight,
@@ -38,7 +43,7 @@ public class BoidUtils {
                 Point2D position = new Point2D(x, y);
 
                 // Generate random velocity with the specified magnitude
-                Point2D velocity = generateRandomVelocity(randomVelocityMagnitude);
+                Point2D velocity = generateRandomVelocity(random, randomVelocityMagnitude);
 
                 // Create and add a new Boid to the list
                 Boid boid = new Boid(position.getX(),position.getY());
@@ -49,8 +54,7 @@ public class BoidUtils {
             return boids;
         }
 
-        private static Point2D generateRandomVelocity(double magnitude) {
-            Random random = new Random();
+        private static Point2D generateRandomVelocity(Random random, double magnitude) {
             double angle = random.nextDouble() * 2 * Math.PI; // Random angle in radians
             double x = magnitude * Math.cos(angle);
             double y = magnitude * Math.sin(angle);
@@ -59,8 +63,7 @@ public class BoidUtils {
     }
 
     public static Point2D randVelocity(double magnitude) {
-        Random random = new Random();
-        double angle = random.nextDouble() * 2 * Math.PI; // Random angle in radians
+        double angle = ThreadLocalRandom.current().nextDouble() * 2 * Math.PI; // Random angle in radians
         double x = magnitude * Math.cos(angle);
         double y = magnitude * Math.sin(angle);
         return new Point2D(x, y);
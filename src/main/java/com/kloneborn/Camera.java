@@ -0,0 +1,118 @@
+package com.kloneborn;
+
+import javafx.geometry.Point2D;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.canvas.GraphicsContext;
+
+/**
+ * Pan and zoom over a world that may be much larger than the canvas showing
+ * it.
+ * <p>
+ * The camera is moved from the JavaFX thread by mouse handlers and read by the
+ * simulation thread while rendering, so every access is synchronized. Renderers
+ * should take one {@link #getView()} per frame and use it for both culling and
+ * {@link #apply(GraphicsContext, Rectangle2D)}.
+ * </p>
+ */
+public class Camera {
+    public static final double MAX_ZOOM = 16.0;
+
+    private final double worldWidth;
+    private final double worldHeight;
+    private final double viewportWidth;
+    private final double viewportHeight;
+    // World coordinate shown at the top left corner of the viewport
+    private double x;
+    private double y;
+    // Screen pixels per world unit
+    private double zoom = 1.0;
+
+    public Camera(double worldWidth, double worldHeight, double viewportWidth, double viewportHeight) {
+        this.worldWidth = worldWidth;
+        this.worldHeight = worldHeight;
+        this.viewportWidth = viewportWidth;
+        this.viewportHeight = viewportHeight;
+        clamp();
+    }
+
+    /**
+     * Move the view by a distance given in screen pixels.
+     */
+    public synchronized void pan(double dx, double dy) {
+        x -= dx / zoom;
+        y -= dy / zoom;
+        clamp();
+    }
+
+    /**
+     * Zoom by {@code factor} while keeping the world point under the given
+     * screen position in place.
+     */
+    public synchronized void zoom(double factor, double screenX, double screenY) {
+        double worldX = x + screenX / zoom;
+        double worldY = y + screenY / zoom;
+        zoom = Math.max(minZoom(), Math.min(MAX_ZOOM, zoom * factor));
+        x = worldX - screenX / zoom;
+        y = worldY - screenY / zoom;
+        clamp();
+    }
+
+    /**
+     * Zoom out until the whole world fits in the viewport.
+     */
+    public synchronized void fit() {
+        zoom = minZoom();
+        clamp();
+    }
+
+    /**
+     * @return The part of the world currently visible, in world coordinates.
+     */
+    public synchronized Rectangle2D getView() {
+        return new Rectangle2D(x, y, viewportWidth / zoom, viewportHeight / zoom);
+    }
+
+    public synchronized double getZoom() {
+        return zoom;
+    }
+
+    public synchronized Point2D toWorld(double screenX, double screenY) {
+        return new Point2D(x + screenX / zoom, y + screenY / zoom);
+    }
+
+    /**
+     * Set the transform of {@code gc} so that drawing in world coordinates lands
+     * in the right place on screen for the given view.
+     */
+    public void apply(GraphicsContext gc, Rectangle2D view) {
+        double scale = viewportWidth / view.getWidth();
+        gc.setTransform(scale, 0, 0, scale, -view.getMinX() * scale, -view.getMinY() * scale);
+    }
+
+    public double getViewportWidth() {
+        return viewportWidth;
+    }
+
+    public double getViewportHeight() {
+        return viewportHeight;
+    }
+
+    private double minZoom() {
+        return Math.min(1.0, Math.min(viewportWidth / worldWidth, viewportHeight / worldHeight));
+    }
+
+    /**
+     * Keep the view inside the world, or centred on it when the world is the
+     * smaller of the two.
+     */
+    private void clamp() {
+        x = clampAxis(x, viewportWidth / zoom, worldWidth);
+        y = clampAxis(y, viewportHeight / zoom, worldHeight);
+    }
+
+    private static double clampAxis(double start, double visible, double world) {
+        if (visible >= world)
+            return (world - visible) / 2;
+        return Math.max(0, Math.min(world - visible, start));
+    }
+}
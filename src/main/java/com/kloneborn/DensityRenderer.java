@@ -0,0 +1,215 @@
+package com.kloneborn;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+/**
+ * Level of detail renderer that draws a flock as a coarse density or velocity
+ * field instead of one shape per boid.
+ * <p>
+ * Boid positions are binned into a grid of {@code binSize x binSize} screen
+ * pixels, which is colourised and drawn as a single image. The cost is one pass
+ * over the boids plus one pass over the bins, independent of how many boids
+ * overlap. Large flocks are binned in parallel chunks that are merged
+ * afterwards.
+ * </p>
+ */
+public class DensityRenderer {
+    /**
+     * How a bin is coloured.
+     */
+    public enum ColorMode {
+        /** Fill colour with an opacity that grows with the number of boids. */
+        COUNT,
+        /** Hue from the mean heading, saturation from how aligned the boids are. */
+        HEADING
+    }
+
+    private static final int PARALLEL_THRESHOLD = 50_000;
+    private static final int CHUNK_SIZE = 25_000;
+
+    private final int binSize;
+    private final double viewportWidth;
+    private final double viewportHeight;
+    private final int cols;
+    private final int rows;
+    private final int[] count;
+    private final double[] headingX;
+    private final double[] headingY;
+    private final int[] pixels;
+    // Bins of each parallel chunk, grown to the largest chunk count seen and reused
+    private int[][] chunkCounts = new int[0][];
+    private double[][] chunkHeadingX = new double[0][];
+    private double[][] chunkHeadingY = new double[0][];
+    // Two images so the canvas never draws one that is being written to
+    private final WritableImage[] images = new WritableImage[2];
+    private int current;
+    private ColorMode colorMode = ColorMode.COUNT;
+    private boolean parallel = true;
+
+    public DensityRenderer(double viewportWidth, double viewportHeight, int binSize) {
+        this.binSize = binSize;
+        this.viewportWidth = viewportWidth;
+        this.viewportHeight = viewportHeight;
+        this.cols = (int) Math.ceil(viewportWidth / binSize);
+        this.rows = (int) Math.ceil(viewportHeight / binSize);
+        this.count = new int[cols * rows];
+        this.headingX = new double[cols * rows];
+        this.headingY = new double[cols * rows];
+        this.pixels = new int[cols * rows];
+        for (int i = 0; i < images.length; i++)
+            images[i] = new WritableImage(cols, rows);
+    }
+
+    /**
+     * Bin {@code boids} against the world rectangle {@code view} and draw the
+     * result over the whole viewport. The transform of {@code gc} is expected to
+     * be the identity.
+     */
+    public void render(GraphicsContext gc, List<Boid> boids, Rectangle2D view, Color fill) {
+        if (parallel && boids.size() >= PARALLEL_THRESHOLD)
+            binParallel(boids, view);
+        else
+            bin(boids, 0, boids.size(), view, count, headingX, headingY);
+        colorize(fill);
+
+        WritableImage image = images[current];
+        current = (current + 1) % images.length;
+        image.getPixelWriter().setPixels(0, 0, cols, rows, PixelFormat.getIntArgbInstance(), pixels, 0, cols);
+        gc.setImageSmoothing(false);
+        gc.drawImage(image, 0, 0, cols * binSize, rows * binSize);
+        gc.setImageSmoothing(true);
+    }
+
+    private void bin(List<Boid> boids, int from, int to, Rectangle2D view, int[] count, double[] hx, double[] hy) {
+        Arrays.fill(count, 0);
+        Arrays.fill(hx, 0);
+        Arrays.fill(hy, 0);
+        // World units to bins, through screen pixels
+        double sx = viewportWidth / (view.getWidth() * binSize);
+        double sy = viewportHeight / (view.getHeight() * binSize);
+        for (int i = from; i < to; i++) {
+            Boid boid = boids.get(i);
+            double x = (boid.location.getX() - view.getMinX()) * sx;
+            double y = (boid.location.getY() - view.getMinY()) * sy;
+            if (x < 0 || x >= cols || y < 0 || y >= rows)
+                continue;
+            int cell = (int) y * cols + (int) x;
+            count[cell]++;
+            hx[cell] += boid.getHeadingX();
+            hy[cell] += boid.getHeadingY();
+        }
+    }
+
+    private void binParallel(List<Boid> boids, Rectangle2D view) {
+        int chunks = (boids.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        int bins = cols * rows;
+        if (chunkCounts.length < chunks) {
+            int known = chunkCounts.length;
+            chunkCounts = Arrays.copyOf(chunkCounts, chunks);
+            chunkHeadingX = Arrays.copyOf(chunkHeadingX, chunks);
+            chunkHeadingY = Arrays.copyOf(chunkHeadingY, chunks);
+            for (int k = known; k < chunks; k++) {
+                chunkCounts[k] = new int[bins];
+                chunkHeadingX[k] = new double[bins];
+                chunkHeadingY[k] = new double[bins];
+            }
+        }
+        // bin() clears the buffers of its chunk before filling them
+        int[][] counts = chunkCounts;
+        double[][] hxs = chunkHeadingX;
+        double[][] hys = chunkHeadingY;
+        IntStream.range(0, chunks).parallel().forEach(k -> bin(boids, k * CHUNK_SIZE,
+                Math.min(boids.size(), (k + 1) * CHUNK_SIZE), view, counts[k], hxs[k], hys[k]));
+        Arrays.fill(count, 0);
+        Arrays.fill(headingX, 0);
+        Arrays.fill(headingY, 0);
+        for (int k = 0; k < chunks; k++) {
+            for (int cell = 0; cell < bins; cell++) {
+                count[cell] += counts[k][cell];
+                headingX[cell] += hxs[k][cell];
+                headingY[cell] += hys[k][cell];
+            }
+        }
+    }
+
+    private void colorize(Color fill) {
+        int max = 0;
+        for (int c : count)
+            max = Math.max(max, c);
+        double logMax = Math.log1p(max);
+        int rgb = ((int) (fill.getRed() * 255) << 16) | ((int) (fill.getGreen() * 255) << 8)
+                | (int) (fill.getBlue() * 255);
+
+        for (int cell = 0; cell < pixels.length; cell++) {
+            int n = count[cell];
+            if (n == 0) {
+                pixels[cell] = 0;
+                continue;
+            }
+            double density = Math.log1p(n) / logMax;
+            if (colorMode == ColorMode.COUNT) {
+                pixels[cell] = ((int) (density * 255) << 24) | rgb;
+            } else {
+                // One atan2 per bin rather than per boid
+                double hue = (Math.atan2(headingY[cell], headingX[cell]) / (2 * Math.PI) + 1.0) % 1.0;
+                double alignment = Math.sqrt(headingX[cell] * headingX[cell] + headingY[cell] * headingY[cell]) / n;
+                pixels[cell] = hsbToArgb(hue, alignment, 0.4 + 0.6 * density);
+            }
+        }
+    }
+
+    private static int hsbToArgb(double hue, double saturation, double brightness) {
+        double h = hue * 6.0;
+        int sector = (int) h;
+        double f = h - sector;
+        double p = brightness * (1 - saturation);
+        double q = brightness * (1 - saturation * f);
+        double t = brightness * (1 - saturation * (1 - f));
+        double r, g, b;
+        switch (sector % 6) {
+            case 0:
+                r = brightness; g = t; b = p;
+                break;
+            case 1:
+                r = q; g = brightness; b = p;
+                break;
+            case 2:
+                r = p; g = brightness; b = t;
+                break;
+            case 3:
+                r = p; g = q; b = brightness;
+                break;
+            case 4:
+                r = t; g = p; b = brightness;
+                break;
+            default:
+                r = brightness; g = p; b = q;
+                break;
+        }
+        return 0xFF000000 | ((int) (r * 255) << 16) | ((int) (g * 255) << 8) | (int) (b * 255);
+    }
+
+    public ColorMode getColorMode() {
+        return colorMode;
+    }
+
+    public void setColorMode(ColorMode colorMode) {
+        this.colorMode = colorMode;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+}
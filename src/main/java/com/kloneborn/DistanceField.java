@@ -0,0 +1,167 @@
+package com.kloneborn;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javafx.geometry.Rectangle2D;
+
+/**
+ * Signed distance field of every {@link Obstacle} in the world, sampled on a
+ * regular grid together with its gradient.
+ * <p>
+ * Distances are clamped to {@link #getRange()}, the furthest a boid reacts to
+ * an obstacle, so a change to one obstacle only affects the cells within that
+ * range of it. Adding, moving or removing an obstacle recomputes just those
+ * cells. Looking up the field is one array access per boid however many
+ * obstacles there are. The grid is only allocated when the first obstacle
+ * is added, so a field without obstacles costs nothing however large the
+ * world.
+ * </p>
+ * <p>
+ * Not thread safe; edit and sample it from the simulation thread.
+ * </p>
+ */
+public class DistanceField {
+    private final double cellSize;
+    private final double range;
+    private final int cols;
+    private final int rows;
+    private float[] distance;
+    // Unit vector pointing away from the nearest obstacle
+    private float[] gradientX;
+    private float[] gradientY;
+    private final List<Obstacle> obstacles = new ArrayList<>();
+
+    public DistanceField(double width, double height, double cellSize, double range) {
+        this.cellSize = cellSize;
+        this.range = range;
+        this.cols = Math.max(1, (int) Math.ceil(width / cellSize));
+        this.rows = Math.max(1, (int) Math.ceil(height / cellSize));
+    }
+
+    public void add(Obstacle obstacle) {
+        if (distance == null) {
+            distance = new float[cols * rows];
+            gradientX = new float[cols * rows];
+            gradientY = new float[cols * rows];
+            Arrays.fill(distance, (float) range);
+        }
+        obstacles.add(obstacle);
+        rebuild(obstacle.getBounds());
+    }
+
+    public void remove(Obstacle obstacle) {
+        if (obstacles.remove(obstacle))
+            rebuild(obstacle.getBounds());
+    }
+
+    public void move(Obstacle obstacle, double dx, double dy) {
+        Rectangle2D before = obstacle.getBounds();
+        obstacle.translate(dx, dy);
+        Rectangle2D after = obstacle.getBounds();
+        double minX = Math.min(before.getMinX(), after.getMinX());
+        double minY = Math.min(before.getMinY(), after.getMinY());
+        rebuild(new Rectangle2D(minX, minY, Math.max(before.getMaxX(), after.getMaxX()) - minX,
+                Math.max(before.getMaxY(), after.getMaxY()) - minY));
+    }
+
+    /**
+     * @return The topmost obstacle containing {@code (x, y)}, or {@code null}.
+     */
+    public Obstacle obstacleAt(double x, double y) {
+        for (int i = obstacles.size() - 1; i >= 0; i--)
+            if (obstacles.get(i).contains(x, y))
+                return obstacles.get(i);
+        return null;
+    }
+
+    public List<Obstacle> getObstacles() {
+        return Collections.unmodifiableList(obstacles);
+    }
+
+    public boolean isEmpty() {
+        return obstacles.isEmpty();
+    }
+
+    /**
+     * @return Index of the cell containing {@code (x, y)}, clamped to the field.
+     */
+    public int cellAt(double x, double y) {
+        return row(y) * cols + col(x);
+    }
+
+    public double distance(int cell) {
+        return distance != null ? distance[cell] : range;
+    }
+
+    public double gradientX(int cell) {
+        return gradientX != null ? gradientX[cell] : 0;
+    }
+
+    public double gradientY(int cell) {
+        return gradientY != null ? gradientY[cell] : 0;
+    }
+
+    /**
+     * @return Distance beyond which obstacles are ignored.
+     */
+    public double getRange() {
+        return range;
+    }
+
+    /**
+     * Recompute every cell within range of {@code changed}, plus a one cell
+     * border whose gradients depend on them.
+     */
+    private void rebuild(Rectangle2D changed) {
+        double pad = range + cellSize;
+        int c0 = col(changed.getMinX() - pad), c1 = col(changed.getMaxX() + pad);
+        int r0 = row(changed.getMinY() - pad), r1 = row(changed.getMaxY() + pad);
+
+        // Only obstacles that can reach the region take part
+        List<Obstacle> nearby = new ArrayList<>();
+        for (Obstacle obstacle : obstacles) {
+            Rectangle2D b = obstacle.getBounds();
+            if (b.getMaxX() + pad >= c0 * cellSize && b.getMinX() - pad <= (c1 + 1) * cellSize
+                    && b.getMaxY() + pad >= r0 * cellSize && b.getMinY() - pad <= (r1 + 1) * cellSize)
+                nearby.add(obstacle);
+        }
+
+        for (int r = r0; r <= r1; r++) {
+            double y = (r + 0.5) * cellSize;
+            for (int c = c0; c <= c1; c++) {
+                double x = (c + 0.5) * cellSize;
+                double d = range;
+                for (Obstacle obstacle : nearby)
+                    d = Math.min(d, obstacle.distance(x, y));
+                distance[r * cols + c] = (float) d;
+            }
+        }
+
+        int gc0 = Math.max(0, c0 - 1), gc1 = Math.min(cols - 1, c1 + 1);
+        int gr0 = Math.max(0, r0 - 1), gr1 = Math.min(rows - 1, r1 + 1);
+        for (int r = gr0; r <= gr1; r++) {
+            for (int c = gc0; c <= gc1; c++) {
+                // Central differences, one sided at the edges of the world
+                double gx = distance[r * cols + Math.min(cols - 1, c + 1)] - distance[r * cols + Math.max(0, c - 1)];
+                double gy = distance[Math.min(rows - 1, r + 1) * cols + c] - distance[Math.max(0, r - 1) * cols + c];
+                double length = Math.sqrt(gx * gx + gy * gy);
+                int cell = r * cols + c;
+                gradientX[cell] = length > 0 ? (float) (gx / length) : 0;
+                gradientY[cell] = length > 0 ? (float) (gy / length) : 0;
+            }
+        }
+    }
+
+    private int col(double x) {
+        int c = (int) Math.floor(x / cellSize);
+        return c < 0 ? 0 : c >= cols ? cols - 1 : c;
+    }
+
+    private int row(double y) {
+        int r = (int) Math.floor(y / cellSize);
+        return r < 0 ? 0 : r >= rows ? rows - 1 : r;
+    }
+}
@@ -0,0 +1,673 @@
+package com.kloneborn;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.IntFunction;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Owns the boids of a simulation and advances them one tick at a time.
+ * <p>
+ * Neighbours are looked up through a {@link SpatialGrid} that is rebuilt at the
+ * start of every tick. Every {@link #getReorderInterval()} ticks the boid list
+ * itself is rewritten in the grid's Z-order so that boids which are close in the
+ * world are also close in the list, which keeps neighbour scans walking through
+ * nearby memory. Use {@link Boid#getId()} rather than list positions to keep
+ * track of individual boids.
+ * </p>
+ * <p>
+ * Each behaviour can be capped to a maximum number of neighbours. Once a boid
+ * has found that many it stops scanning, which bounds the cost of a tick when
+ * the flock collapses into dense clusters. Scans start at a random candidate
+ * and step through the candidates by a random stride, so capped boids still
+ * sample their whole surroundings rather than the grid cells on one side.
+ * </p>
+ * <p>
+ * With a stagger interval {@code K > 1} only the boids whose stagger key falls
+ * on the current phase ({@code key % K == tick % K}) rerun their neighbour
+ * scan; every other boid reapplies the steering it cached the last time it
+ * did. Movement is still integrated for every boid every tick. The flock hands
+ * out consecutive keys to boids as they first tick in it, so the phases are
+ * equally full however many ids other flocks have used. When adaptive
+ * staggering is on, {@code K} moves one step at a time, and only after the
+ * smoothed tick time stayed over {@link #getTickBudget()}, or under half of
+ * it, for {@link #STAGGER_SETTLE_TICKS} ticks in a row.
+ * </p>
+ * <p>
+ * Boids belong to a {@link Species} and the index is partitioned by species:
+ * each species has its own grid, and a boid only queries the grids of species
+ * its {@link InteractionMatrix} row does not ignore.
+ * </p>
+ * <p>
+ * Static {@link Obstacle obstacles} are kept in a {@link DistanceField}; each
+ * boid avoids all of them with one lookup into the field.
+ * </p>
+ * <p>
+ * In {@link #isParallel() parallel} mode large flocks are steered in parallel
+ * chunks against the positions of the previous tick and then moved, instead of
+ * being steered and moved one boid at a time. On a single core the sequential
+ * pass is always used.
+ * </p>
+ * <p>
+ * An attached {@link FlockAnalytics} is fed from the neighbour lookups of the
+ * ticks it samples; those ticks always use the sequential pass.
+ * </p>
+ * <p>
+ * A tick covers however much simulated time it is given, in units of
+ * {@link Vehicle#REFERENCE_RATE} ticks, so lowering the update rate makes
+ * ticks cheaper per second without slowing the boids down. Each tick steers
+ * once and then integrates movement in {@link #getSubsteps()} equal substeps.
+ * Every substep limits the speed, looks up the obstacles again and wraps
+ * around the edge of the world, so with enough substeps a long tick moves a
+ * boid the way several short ones would instead of in a single jump.
+ * Flocking itself is only steered once per tick.
+ * </p>
+ * <p>
+ * A flock that owns one region of a larger world, see {@link TileWorker}, is
+ * given copies of the boids just across its borders as its {@link #getHalo()
+ * halo}. Halo boids are indexed as neighbours but never moved, and ticks with
+ * a halo are neither reordered nor sampled by analytics.
+ * </p>
+ */
+public class Flock {
+    public static final int DEFAULT_REORDER_INTERVAL = 30;
+    public static final int UNLIMITED_NEIGHBORS = Integer.MAX_VALUE;
+    public static final int MAX_STAGGER_INTERVAL = 16;
+    // Long enough for a full round of the largest interval to show its effect
+    public static final int STAGGER_SETTLE_TICKS = 2 * MAX_STAGGER_INTERVAL;
+    private static final double STAGGER_HEADROOM = 0.5;
+    private static final double STAGGER_SMOOTHING = 0.1;
+    public static final double OBSTACLE_CELL_SIZE = 5.0;
+    public static final double OBSTACLE_RANGE = 40.0;
+    public static final double OBSTACLE_WEIGHT = 4.0;
+    public static final int MAX_SUBSTEPS = 16;
+    // Flocks smaller than this are not worth splitting across threads
+    private static final int PARALLEL_THRESHOLD = 2_000;
+    private static final int CHUNK_SIZE = 512;
+
+    private final ArrayList<Boid> boids = new ArrayList<>();
+    private final List<Boid> halo = new ArrayList<>();
+    private final double width;
+    private final double height;
+    private List<Species> species;
+    private InteractionMatrix interactions;
+    // One grid and member list per species, indexed by Species#getIndex()
+    private SpatialGrid[] grids;
+    private List<List<Boid>> members;
+    private final List<Boid> neighbors = new ArrayList<>();
+    private final DistanceField obstacles;
+    private FlockParameters parameters = FlockParameters.DEFAULT;
+    private int reorderInterval = DEFAULT_REORDER_INTERVAL;
+    private int alignmentCap = UNLIMITED_NEIGHBORS;
+    private int cohesionCap = UNLIMITED_NEIGHBORS;
+    private int separationCap = UNLIMITED_NEIGHBORS;
+    private int lastCapHits;
+    private long lastNeighbors;
+    private int lastSteered;
+    private long totalCapHits;
+    private int staggerInterval = 1;
+    private boolean adaptiveStagger;
+    private int nextStaggerKey;
+    private double smoothedTickTime;
+    private int overBudgetTicks;
+    private int underBudgetTicks;
+    private boolean parallel;
+    private int substeps = 1;
+    // Reference ticks covered by the tick in progress
+    private double step = 1.0;
+    private FlockAnalytics analytics;
+    private double tickBudget;
+    private double lastTickTime;
+    private long ticks;
+    // Population requested from other threads, applied at the start of a tick
+    private volatile int requestedPopulation = -1;
+    private IntFunction<List<Boid>> spawner;
+    private double lastSpawnTime;
+    // Picks the boids removed when the population shrinks
+    private SplittableRandom random = new SplittableRandom(0);
+
+    public Flock(double width, double height) {
+        this.width = width;
+        this.height = height;
+        this.obstacles = new DistanceField(width, height, OBSTACLE_CELL_SIZE, OBSTACLE_RANGE);
+        setSpecies(List.of(Species.DEFAULT), InteractionMatrix.single());
+    }
+
+    /**
+     * Replace the species and the way they interact. Every boid must belong to
+     * one of {@code species}.
+     */
+    public void setSpecies(List<Species> species, InteractionMatrix interactions) {
+        if (interactions.size() != species.size())
+            throw new IllegalArgumentException("Interaction matrix is " + interactions.size() + "x"
+                    + interactions.size() + " but there are " + species.size() + " species");
+        this.species = species;
+        this.interactions = interactions;
+        this.grids = new SpatialGrid[species.size()];
+        this.members = new ArrayList<>(species.size());
+        for (int s = 0; s < species.size(); s++) {
+            grids[s] = new SpatialGrid(width, height, Boid.ALIGNMENT_RADIUS);
+            members.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * Advance every boid by one reference tick.
+     */
+    public void update() {
+        tick(1.0);
+    }
+
+    /**
+     * Advance every boid by {@code dt} milliseconds of simulated time.
+     */
+    public void update(double dt) {
+        tick(dt * Vehicle.REFERENCE_RATE / 1000);
+    }
+
+    /**
+     * @param step Reference ticks to advance by.
+     */
+    private void tick(double step) {
+        long start = System.nanoTime();
+        this.step = step;
+        applyPopulation();
+        for (List<Boid> list : members)
+            list.clear();
+        for (Boid boid : boids) {
+            if (boid.staggerKey < 0)
+                boid.staggerKey = nextStaggerKey++;
+            members.get(boid.getSpecies().getIndex()).add(boid);
+        }
+        for (Boid ghost : halo)
+            members.get(ghost.getSpecies().getIndex()).add(ghost);
+        for (int s = 0; s < grids.length; s++)
+            grids[s].rebuild(members.get(s));
+        // The grids hold the halo too, so their order is not the order of the boids alone
+        if (reorderInterval > 0 && ticks % reorderInterval == 0 && halo.isEmpty()) {
+            // Species after species, each one in Z-order
+            int next = 0;
+            for (SpatialGrid grid : grids)
+                next = grid.copyOrderTo(boids, next);
+        }
+
+        FlockAnalytics sampler = analytics != null && halo.isEmpty() && analytics.isDue(ticks) ? analytics : null;
+        if (sampler != null) {
+            for (int i = 0; i < boids.size(); i++)
+                boids.get(i).slot = i;
+            sampler.begin(boids.size(), interactions.isMutual());
+        }
+
+        Tally tally;
+        if (sampler == null && parallel && boids.size() >= PARALLEL_THRESHOLD
+                && ForkJoinPool.getCommonPoolParallelism() > 1)
+            tally = updateParallel();
+        else
+            tally = updateSequential(sampler);
+        if (sampler != null)
+            sampler.finish(ticks);
+        lastCapHits = tally.capHits;
+        totalCapHits += tally.capHits;
+        lastNeighbors = tally.neighbors;
+        lastSteered = tally.steered;
+        ticks++;
+
+        lastTickTime = (System.nanoTime() - start) / 1_000_000.0;
+        if (adaptiveStagger && tickBudget > 0)
+            adaptStaggerInterval();
+    }
+
+    /**
+     * Grow or shrink the flock to the requested population. New boids come from
+     * the spawner and are added at the end of the list; removed boids are picked
+     * at random, since the list is in spatial order and trimming its end would
+     * empty one region of the world.
+     */
+    private void applyPopulation() {
+        int target = requestedPopulation;
+        if (target < 0)
+            return;
+        requestedPopulation = -1;
+        int size = boids.size();
+        if (target > size) {
+            if (spawner == null)
+                throw new IllegalStateException("Flock has no spawner to grow with");
+            long start = System.nanoTime();
+            boids.ensureCapacity(target);
+            boids.addAll(spawner.apply(target - size));
+            lastSpawnTime = (System.nanoTime() - start) / 1_000_000.0;
+        } else {
+            for (int n = size; n > target; n--) {
+                // Swap the removed boid with the last one so removal stays O(1)
+                int i = random.nextInt(n);
+                boids.set(i, boids.get(n - 1));
+                boids.remove(n - 1);
+            }
+        }
+    }
+
+    /**
+     * @param sampler Analytics to feed this tick, or {@code null}.
+     */
+    private Tally updateSequential(FlockAnalytics sampler) {
+        Tally tally = new Tally();
+        int interval = staggerInterval;
+        int phase = (int) (ticks % interval);
+        for (Boid boid : boids) {
+            if (sampler != null)
+                sampler.observe(boid);
+            if (boid.staggerKey % interval == phase) {
+                steer(boid, neighbors, sampler, tally);
+            } else {
+                boid.applyForce(boid.getSteering());
+                // Boids reusing their steering still need their neighbours looked up for a sample
+                if (sampler != null)
+                    for (int other : interactions.interacting(boid.getSpecies().getIndex()))
+                        sampler.observe(boid, collect(boid, other, neighbors));
+            }
+            move(boid);
+        }
+        return tally;
+    }
+
+    /**
+     * Steer every boid against the positions of the previous tick in parallel
+     * chunks, then move them all. Unlike the sequential pass no boid sees a
+     * neighbour that has already moved this tick.
+     */
+    private Tally updateParallel() {
+        int interval = staggerInterval;
+        int phase = (int) (ticks % interval);
+        int chunks = (boids.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        Tally tally = IntStream.range(0, chunks).parallel().mapToObj(k -> {
+            List<Boid> buffer = new ArrayList<>();
+            Tally chunk = new Tally();
+            for (int i = k * CHUNK_SIZE, end = Math.min(boids.size(), i + CHUNK_SIZE); i < end; i++) {
+                Boid boid = boids.get(i);
+                if (boid.staggerKey % interval == phase)
+                    steer(boid, buffer, null, chunk);
+            }
+            return chunk;
+        }).reduce(Tally::add).orElseGet(Tally::new);
+        IntStream.range(0, chunks).parallel().forEach(k -> {
+            for (int i = k * CHUNK_SIZE, end = Math.min(boids.size(), i + CHUNK_SIZE); i < end; i++) {
+                Boid boid = boids.get(i);
+                if (boid.staggerKey % interval != phase)
+                    boid.applyForce(boid.getSteering());
+                move(boid);
+            }
+        });
+        return tally;
+    }
+
+    /**
+     * Rerun the neighbour scan of {@code boid} and cache the resulting steering.
+     *
+     * @param sampler Analytics that also get to see the neighbours, or
+     *                {@code null}.
+     * @param tally   Counts of the tick so far.
+     */
+    private void steer(Boid boid, List<Boid> neighbors, FlockAnalytics sampler, Tally tally) {
+        int capHits = 0;
+        tally.steered++;
+        Species own = boid.getSpecies();
+        for (int other : interactions.interacting(own.getIndex())) {
+            double weight = interactions.get(own.getIndex(), other);
+            collect(boid, other, neighbors);
+            if (sampler != null)
+                sampler.observe(boid, neighbors);
+            tally.neighbors += neighbors.size();
+            if (neighbors.isEmpty())
+                continue;
+            int n = neighbors.size();
+            // Drawn from the boid's own stream so seeded boids sample the same neighbours on every run
+            int offset = boid.nextRandom(n);
+            int stride = Boid.coprimeStride(n, boid.nextRandom(n));
+            if (weight < 0) {
+                if (boid.avoid(neighbors, parameters, separationCap, offset, stride, -weight))
+                    capHits++;
+                continue;
+            }
+            if (parameters.isAligning() && boid.align(neighbors, parameters, alignmentCap, offset, stride,
+                    weight * own.getAlignmentWeight()))
+                capHits++;
+            if (parameters.isCohering() && boid.cohere(neighbors, parameters, cohesionCap, offset, stride,
+                    weight * own.getCohesionWeight()))
+                capHits++;
+            if (parameters.isSeparating() && boid.seperate(neighbors, parameters, separationCap, offset, stride,
+                    weight * own.getSeparationWeight()))
+                capHits++;
+        }
+        boid.setSteering(boid.getAcceleration());
+        tally.capHits += capHits;
+    }
+
+    private List<Boid> collect(Boid boid, int species, List<Boid> out) {
+        out.clear();
+        grids[species].collect(boid.location.getX(), boid.location.getY(), Boid.ALIGNMENT_RADIUS, out);
+        return out;
+    }
+
+    /**
+     * Integrate the movement of {@code boid}. Obstacles are a single field
+     * lookup, so they are checked at every substep even for boids reusing
+     * cached steering.
+     */
+    private void move(Boid boid) {
+        boid.update(step, substeps, this);
+    }
+
+    /**
+     * Spread the neighbour work over more ticks when over budget and pull it
+     * back in once a tick fits comfortably within half of it. The tick time is
+     * smoothed and has to stay on one side for a while, so a noisy load does
+     * not flip boids between being steered and skipped.
+     */
+    private void adaptStaggerInterval() {
+        smoothedTickTime = smoothedTickTime == 0 ? lastTickTime
+                : smoothedTickTime + STAGGER_SMOOTHING * (lastTickTime - smoothedTickTime);
+        if (smoothedTickTime > tickBudget) {
+            underBudgetTicks = 0;
+            if (++overBudgetTicks >= STAGGER_SETTLE_TICKS && staggerInterval < MAX_STAGGER_INTERVAL) {
+                staggerInterval++;
+                overBudgetTicks = 0;
+            }
+        } else if (smoothedTickTime < tickBudget * STAGGER_HEADROOM) {
+            overBudgetTicks = 0;
+            if (++underBudgetTicks >= STAGGER_SETTLE_TICKS && staggerInterval > 1) {
+                staggerInterval--;
+                underBudgetTicks = 0;
+            }
+        } else {
+            overBudgetTicks = 0;
+            underBudgetTicks = 0;
+        }
+    }
+
+    /**
+     * Add the boids that may lie inside the given rectangle to {@code out},
+     * using the grid built at the start of the last tick. Boids have moved a
+     * little since, so callers should pad the rectangle by the distance a boid
+     * can travel in one tick.
+     */
+    public void collectInside(double minX, double minY, double maxX, double maxY, List<Boid> out) {
+        for (SpatialGrid grid : grids)
+            grid.collect(minX, minY, maxX, maxY, out);
+    }
+
+    /**
+     * Use {@link #setPopulation(int)} rather than editing the list while the
+     * flock is being updated on another thread.
+     */
+    public List<Boid> getBoids() {
+        return boids;
+    }
+
+    /**
+     * @return Boids owned by another flock that boids of this one see as
+     *         neighbours but which are not moved. Edit between ticks.
+     */
+    public List<Boid> getHalo() {
+        return halo;
+    }
+
+    /**
+     * Ask for the flock to hold {@code count} boids. Safe to call from any
+     * thread; the change is applied at the start of the next tick, so only the
+     * difference is spawned or removed.
+     */
+    public void setPopulation(int count) {
+        if (count < 0)
+            throw new IllegalArgumentException("Population cannot be negative, got " + count);
+        requestedPopulation = count;
+    }
+
+    /**
+     * @param spawner Creates the given number of boids when the population
+     *                grows, for example {@link BoidSpawner#spawn(int)}. Called on
+     *                the thread that updates the flock.
+     */
+    public void setSpawner(IntFunction<List<Boid>> spawner) {
+        this.spawner = spawner;
+    }
+
+    /**
+     * @param seed Seed for the choice of boids removed when the population
+     *             shrinks, so a run that shrinks the flock stays reproducible.
+     *             Set between ticks.
+     */
+    public void setSeed(long seed) {
+        this.random = new SplittableRandom(seed);
+    }
+
+    /**
+     * @return Wall time in milliseconds the last growth of the population took
+     *         to spawn its boids.
+     */
+    public double getLastSpawnTime() {
+        return lastSpawnTime;
+    }
+
+    /**
+     * @return The obstacles boids steer around. Edit them from the thread that
+     *         calls {@link #update()}.
+     */
+    public DistanceField getObstacles() {
+        return obstacles;
+    }
+
+    public List<Species> getSpecies() {
+        return species;
+    }
+
+    public InteractionMatrix getInteractions() {
+        return interactions;
+    }
+
+    public long getTicks() {
+        return ticks;
+    }
+
+    public double getWidth() {
+        return width;
+    }
+
+    public double getHeight() {
+        return height;
+    }
+
+    public FlockParameters getParameters() {
+        return parameters;
+    }
+
+    /**
+     * @param parameters Settings every boid of the flock steers and moves by.
+     *                   Set between ticks.
+     */
+    public void setParameters(FlockParameters parameters) {
+        this.parameters = parameters;
+    }
+
+    public boolean isAligning() {
+        return parameters.isAligning();
+    }
+
+    public void setAligning(boolean aligning) {
+        this.parameters = parameters.withAligning(aligning);
+    }
+
+    public boolean isCohering() {
+        return parameters.isCohering();
+    }
+
+    public void setCohering(boolean cohering) {
+        this.parameters = parameters.withCohering(cohering);
+    }
+
+    public boolean isSeparating() {
+        return parameters.isSeparating();
+    }
+
+    public void setSeparating(boolean separating) {
+        this.parameters = parameters.withSeparating(separating);
+    }
+
+    /**
+     * Apply the same neighbour cap to every behaviour.
+     *
+     * @param cap Maximum neighbours per behaviour, {@link #UNLIMITED_NEIGHBORS}
+     *            to scan every candidate.
+     */
+    public void setNeighborCap(int cap) {
+        setAlignmentCap(cap);
+        setCohesionCap(cap);
+        setSeparationCap(cap);
+    }
+
+    public int getAlignmentCap() {
+        return alignmentCap;
+    }
+
+    public void setAlignmentCap(int alignmentCap) {
+        this.alignmentCap = alignmentCap;
+    }
+
+    public int getCohesionCap() {
+        return cohesionCap;
+    }
+
+    public void setCohesionCap(int cohesionCap) {
+        this.cohesionCap = cohesionCap;
+    }
+
+    public int getSeparationCap() {
+        return separationCap;
+    }
+
+    public void setSeparationCap(int separationCap) {
+        this.separationCap = separationCap;
+    }
+
+    /**
+     * @return How many boid behaviours stopped at their neighbour cap during the
+     *         last tick.
+     */
+    public int getLastCapHits() {
+        return lastCapHits;
+    }
+
+    /**
+     * @return Neighbour candidates looked up per boid that reran its scan last
+     *         tick, before any cap.
+     */
+    public double getMeanNeighbors() {
+        return lastSteered > 0 ? (double) lastNeighbors / lastSteered : 0;
+    }
+
+    /**
+     * @return How many boid behaviours stopped at their neighbour cap since the
+     *         flock was created.
+     */
+    public long getTotalCapHits() {
+        return totalCapHits;
+    }
+
+    public FlockAnalytics getAnalytics() {
+        return analytics;
+    }
+
+    /**
+     * @param analytics Analytics to sample while ticking, or {@code null} for
+     *                  none.
+     */
+    public void setAnalytics(FlockAnalytics analytics) {
+        this.analytics = analytics;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * @return Number of ticks a full round of steering updates is spread over.
+     */
+    public int getStaggerInterval() {
+        return staggerInterval;
+    }
+
+    public void setStaggerInterval(int staggerInterval) {
+        this.staggerInterval = Math.max(1, Math.min(MAX_STAGGER_INTERVAL, staggerInterval));
+    }
+
+    public boolean isAdaptiveStagger() {
+        return adaptiveStagger;
+    }
+
+    public void setAdaptiveStagger(boolean adaptiveStagger) {
+        this.adaptiveStagger = adaptiveStagger;
+    }
+
+    /**
+     * @return Integration substeps per tick.
+     */
+    public int getSubsteps() {
+        return substeps;
+    }
+
+    public void setSubsteps(int substeps) {
+        this.substeps = Math.max(1, Math.min(MAX_SUBSTEPS, substeps));
+    }
+
+    /**
+     * @return Time in milliseconds a tick may take before adaptive staggering
+     *         increases the interval.
+     */
+    public double getTickBudget() {
+        return tickBudget;
+    }
+
+    public void setTickBudget(double tickBudget) {
+        this.tickBudget = tickBudget;
+    }
+
+    /**
+     * @return Wall time of the last {@link #update()} in milliseconds.
+     */
+    public double getLastTickTime() {
+        return lastTickTime;
+    }
+
+    /**
+     * @return Ticks between two Z-order passes over the boid list, {@code 0}
+     *         when reordering is disabled.
+     */
+    public int getReorderInterval() {
+        return reorderInterval;
+    }
+
+    public void setReorderInterval(int reorderInterval) {
+        this.reorderInterval = reorderInterval;
+    }
+
+    /**
+     * Counters of one tick, or of one chunk of it.
+     */
+    private static final class Tally {
+        private int capHits;
+        private long neighbors;
+        private int steered;
+
+        Tally add(Tally other) {
+            capHits += other.capHits;
+            neighbors += other.neighbors;
+            steered += other.steered;
+            return this;
+        }
+    }
+}
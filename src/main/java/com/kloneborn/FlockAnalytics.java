@@ -0,0 +1,158 @@
+package com.kloneborn;
+
+import java.util.List;
+
+/**
+ * Collects {@link FlockMetrics} while a {@link Flock} ticks instead of in a
+ * separate pass afterwards.
+ * <p>
+ * Every {@link #getInterval()} ticks the flock hands each boid to
+ * {@link #observe} together with the neighbour candidates it already looked up
+ * for steering. Polarization and angular momentum are running sums, the nearest
+ * neighbour comes from the candidates, and clusters are merged with union-find
+ * as edges are seen. The neighbour graph is the one the flock scans, so only
+ * boids of interacting species within {@link Boid#ALIGNMENT_RADIUS} can be
+ * connected.
+ * </p>
+ * <p>
+ * The latest result is published once the tick completes and can be read from
+ * any thread.
+ * </p>
+ */
+public class FlockAnalytics {
+    private final int interval;
+    private final double clusterRadius;
+    private int[] parent = new int[0];
+    private double[] nearest = new double[0];
+    private int count;
+    private boolean mutual;
+    private int clusters;
+    private double sumX, sumY, sumSq, sumHx, sumHy, sumCross;
+    private volatile FlockMetrics latest = FlockMetrics.EMPTY;
+    private volatile long lastSampleTick = -1;
+
+    /**
+     * @param interval      Ticks between samples.
+     * @param clusterRadius Boids closer than this belong to the same cluster, no
+     *                      more than {@link Boid#ALIGNMENT_RADIUS}.
+     */
+    public FlockAnalytics(int interval, double clusterRadius) {
+        if (interval < 1)
+            throw new IllegalArgumentException("Sampling interval must be at least 1, got " + interval);
+        this.interval = interval;
+        this.clusterRadius = Math.min(clusterRadius, Boid.ALIGNMENT_RADIUS);
+    }
+
+    boolean isDue(long tick) {
+        return tick % interval == 0;
+    }
+
+    /**
+     * Start a sample of {@code size} boids, whose {@link Boid#slot} must be their
+     * position in the flock for this tick.
+     *
+     * @param mutual Whether every boid that sees another is also seen by it, so
+     *               each edge only needs to be merged from one end.
+     */
+    void begin(int size, boolean mutual) {
+        this.mutual = mutual;
+        if (parent.length < size) {
+            parent = new int[size];
+            nearest = new double[size];
+        }
+        for (int i = 0; i < size; i++) {
+            parent[i] = i;
+            nearest[i] = Double.POSITIVE_INFINITY;
+        }
+        count = size;
+        clusters = size;
+        sumX = sumY = sumSq = sumHx = sumHy = sumCross = 0;
+    }
+
+    /**
+     * Account for the position and heading of {@code boid}. Called once per
+     * boid.
+     */
+    void observe(Boid boid) {
+        double x = boid.location.getX(), y = boid.location.getY();
+        double hx = boid.getHeadingX(), hy = boid.getHeadingY();
+        sumX += x;
+        sumY += y;
+        sumSq += x * x + y * y;
+        sumHx += hx;
+        sumHy += hy;
+        sumCross += x * hy - y * hx;
+    }
+
+    /**
+     * Account for the neighbour candidates of {@code boid}. May be called more
+     * than once per boid, once for each list it looked up.
+     */
+    void observe(Boid boid, List<Boid> candidates) {
+        int i = boid.slot;
+        double best = nearest[i];
+        double radiusSq = clusterRadius * clusterRadius;
+        double x = boid.location.getX(), y = boid.location.getY();
+        for (int k = 0, n = candidates.size(); k < n; k++) {
+            Boid other = candidates.get(k);
+            if (other == boid)
+                continue;
+            double dx = other.location.getX() - x, dy = other.location.getY() - y;
+            double d = dx * dx + dy * dy;
+            if (d < best)
+                best = d;
+            if (d <= radiusSq && (!mutual || other.slot > i) && FlockMetrics.union(parent, i, other.slot))
+                clusters--;
+        }
+        nearest[i] = best;
+    }
+
+    /**
+     * Finish the sample started by {@link #begin} and publish it.
+     */
+    void finish(long tick) {
+        if (count == 0) {
+            latest = FlockMetrics.EMPTY;
+            lastSampleTick = tick;
+            return;
+        }
+        int[] histogram = new int[FlockMetrics.HISTOGRAM_BINS];
+        double total = 0;
+        int withNeighbor = 0;
+        for (int i = 0; i < count; i++) {
+            double d = Math.sqrt(nearest[i]);
+            histogram[FlockMetrics.histogramBin(d)]++;
+            if (d < Boid.ALIGNMENT_RADIUS) {
+                total += d;
+                withNeighbor++;
+            }
+        }
+        double polarization = Math.sqrt(sumHx * sumHx + sumHy * sumHy) / count;
+        double angularMomentum = FlockMetrics.angularMomentum(count, sumX, sumY, sumSq, sumHx, sumHy, sumCross);
+        latest = new FlockMetrics(polarization, angularMomentum, clusters,
+                withNeighbor > 0 ? total / withNeighbor : 0, histogram);
+        lastSampleTick = tick;
+    }
+
+    /**
+     * @return The metrics of the last completed sample.
+     */
+    public FlockMetrics getLatest() {
+        return latest;
+    }
+
+    /**
+     * @return The tick the last sample was taken on, {@code -1} before the first.
+     */
+    public long getLastSampleTick() {
+        return lastSampleTick;
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    public double getClusterRadius() {
+        return clusterRadius;
+    }
+}
@@ -0,0 +1,44 @@
+package com.kloneborn;
+
+/**
+ * Management interface of a {@link Flock}, registered under
+ * {@code com.kloneborn:type=Flock}.
+ */
+public interface FlockMXBean {
+
+    int getPopulation();
+
+    long getTicks();
+
+    double getLastTickTime();
+
+    double getMeanNeighbors();
+
+    int getLastCapHits();
+
+    long getTotalCapHits();
+
+    int getStaggerInterval();
+
+    /**
+     * @return Milliseconds the last population growth spent spawning boids.
+     */
+    double getLastSpawnTime();
+
+    /**
+     * @return Polarization of the last analytics sample, {@code NaN} without
+     *         analytics.
+     */
+    double getPolarization();
+
+    /**
+     * @return Cluster count of the last analytics sample, {@code -1} without
+     *         analytics.
+     */
+    int getClusters();
+
+    /**
+     * Grow or shrink the flock to {@code count} boids at the next tick.
+     */
+    void resizePopulation(int count);
+}
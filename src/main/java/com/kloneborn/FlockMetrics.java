@@ -0,0 +1,208 @@
+package com.kloneborn;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Summary statistics of a flock at one instant.
+ * <ul>
+ * <li><b>Polarization</b>: length of the mean heading, {@code 1} when every
+ * boid flies the same way and close to {@code 0} when headings are
+ * random.</li>
+ * <li><b>Angular momentum</b>: mean of {@code (r - c) x h} over the boids, for
+ * position {@code r}, centroid {@code c} and heading {@code h}, divided by the
+ * RMS distance from the centroid. Close to {@code 1} for a flock milling
+ * clockwise on screen around its centre, {@code -1} counterclockwise and
+ * {@code 0} otherwise.</li>
+ * <li><b>Clusters</b>: number of groups of boids connected by chains of
+ * neighbours closer than the cluster radius.</li>
+ * <li><b>Mean nearest neighbour distance</b>: average distance from each boid
+ * to its closest other boid, together with a histogram of those distances in
+ * {@link #HISTOGRAM_BIN_WIDTH} wide bins. The last bin counts boids with no
+ * neighbour within {@link Boid#ALIGNMENT_RADIUS}, which are left out of the
+ * mean.</li>
+ * </ul>
+ * {@link #measure} computes them from scratch; {@link FlockAnalytics} collects
+ * them during a tick. {@code measure} bins boids into a grid of cluster radius
+ * sized cells, so it is linear in the number of boids for any sensible radius.
+ */
+public class FlockMetrics {
+    public static final double HISTOGRAM_BIN_WIDTH = 5.0;
+    public static final int HISTOGRAM_BINS = (int) Math.ceil(Boid.ALIGNMENT_RADIUS / HISTOGRAM_BIN_WIDTH) + 1;
+    static final FlockMetrics EMPTY = new FlockMetrics(0, 0, 0, 0, new int[HISTOGRAM_BINS]);
+
+    private final double polarization;
+    private final double angularMomentum;
+    private final int clusters;
+    private final double meanNearestNeighbor;
+    private final int[] nearestNeighborHistogram;
+
+    public FlockMetrics(double polarization, double angularMomentum, int clusters, double meanNearestNeighbor,
+            int[] nearestNeighborHistogram) {
+        this.polarization = polarization;
+        this.angularMomentum = angularMomentum;
+        this.clusters = clusters;
+        this.meanNearestNeighbor = meanNearestNeighbor;
+        this.nearestNeighborHistogram = nearestNeighborHistogram;
+    }
+
+    /**
+     * @return The histogram bin of a nearest neighbour distance, the last bin
+     *         for distances beyond the neighbour radius.
+     */
+    static int histogramBin(double distance) {
+        return distance >= Boid.ALIGNMENT_RADIUS ? HISTOGRAM_BINS - 1
+                : Math.min(HISTOGRAM_BINS - 2, (int) (distance / HISTOGRAM_BIN_WIDTH));
+    }
+
+    /**
+     * Angular momentum normalised as described above, from the sums over all
+     * boids of position, squared distance from the origin, heading and
+     * {@code r x h}.
+     */
+    static double angularMomentum(int n, double sumX, double sumY, double sumSq, double sumHx, double sumHy,
+            double sumCross) {
+        double cx = sumX / n, cy = sumY / n;
+        double meanSq = sumSq / n - (cx * cx + cy * cy);
+        if (meanSq <= 0)
+            return 0;
+        return (sumCross - (cx * sumHy - cy * sumHx)) / n / Math.sqrt(meanSq);
+    }
+
+    /**
+     * Measure {@code boids} in a world of the given size.
+     *
+     * @param clusterRadius Boids closer than this belong to the same cluster.
+     */
+    public static FlockMetrics measure(List<Boid> boids, double width, double height, double clusterRadius) {
+        int n = boids.size();
+        if (n == 0)
+            return EMPTY;
+
+        double hx = 0, hy = 0, sumX = 0, sumY = 0, sumSq = 0, sumCross = 0;
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            Boid boid = boids.get(i);
+            x[i] = boid.location.getX();
+            y[i] = boid.location.getY();
+            hx += boid.getHeadingX();
+            hy += boid.getHeadingY();
+            sumX += x[i];
+            sumY += y[i];
+            sumSq += x[i] * x[i] + y[i] * y[i];
+            sumCross += x[i] * boid.getHeadingY() - y[i] * boid.getHeadingX();
+        }
+        double polarization = Math.sqrt(hx * hx + hy * hy) / n;
+        double angularMomentum = angularMomentum(n, sumX, sumY, sumSq, hx, hy, sumCross);
+        int[] histogram = new int[HISTOGRAM_BINS];
+
+        // Counting sort of boid indices by cell
+        int cols = Math.max(1, (int) Math.ceil(width / clusterRadius));
+        int rows = Math.max(1, (int) Math.ceil(height / clusterRadius));
+        int[] cell = new int[n];
+        int[] cellStart = new int[cols * rows + 1];
+        for (int i = 0; i < n; i++) {
+            cell[i] = clamp((int) (y[i] / clusterRadius), rows) * cols + clamp((int) (x[i] / clusterRadius), cols);
+            cellStart[cell[i] + 1]++;
+        }
+        for (int c = 0; c < cols * rows; c++)
+            cellStart[c + 1] += cellStart[c];
+        int[] cursor = Arrays.copyOf(cellStart, cols * rows);
+        int[] items = new int[n];
+        for (int i = 0; i < n; i++)
+            items[cursor[cell[i]]++] = i;
+
+        int[] parent = new int[n];
+        for (int i = 0; i < n; i++)
+            parent[i] = i;
+        int clusters = n;
+        double radiusSq = clusterRadius * clusterRadius;
+        double totalNearest = 0;
+        int withNeighbor = 0;
+
+        for (int i = 0; i < n; i++) {
+            int col = cell[i] % cols, row = cell[i] / cols;
+            double best = Double.POSITIVE_INFINITY;
+            // Rings of cells around the boid; everything outside ring r is further than r cells away
+            for (int r = 0; r <= Math.max(cols, rows); r++) {
+                for (int cr = row - r; cr <= row + r; cr++) {
+                    if (cr < 0 || cr >= rows)
+                        continue;
+                    for (int cc = col - r; cc <= col + r; cc++) {
+                        if (cc < 0 || cc >= cols || (Math.abs(cr - row) != r && Math.abs(cc - col) != r))
+                            continue;
+                        int c = cr * cols + cc;
+                        for (int k = cellStart[c]; k < cellStart[c + 1]; k++) {
+                            int j = items[k];
+                            if (j == i)
+                                continue;
+                            double dx = x[j] - x[i], dy = y[j] - y[i];
+                            double d = dx * dx + dy * dy;
+                            best = Math.min(best, d);
+                            if (r <= 1 && j > i && d <= radiusSq && union(parent, i, j))
+                                clusters--;
+                        }
+                    }
+                }
+                // Ring 1 is always scanned so clusters see every pair within the radius
+                if (r >= 1 && best <= (r * clusterRadius) * (r * clusterRadius))
+                    break;
+            }
+            double nearest = Math.sqrt(best);
+            histogram[histogramBin(nearest)]++;
+            if (nearest < Boid.ALIGNMENT_RADIUS) {
+                totalNearest += nearest;
+                withNeighbor++;
+            }
+        }
+        return new FlockMetrics(polarization, angularMomentum, clusters,
+                withNeighbor > 0 ? totalNearest / withNeighbor : 0, histogram);
+    }
+
+    private static int clamp(int value, int size) {
+        return value < 0 ? 0 : value >= size ? size - 1 : value;
+    }
+
+    static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    /**
+     * @return {@code true} if {@code i} and {@code j} were in different sets.
+     */
+    static boolean union(int[] parent, int i, int j) {
+        int a = find(parent, i), b = find(parent, j);
+        if (a == b)
+            return false;
+        parent[a] = b;
+        return true;
+    }
+
+    public double getPolarization() {
+        return polarization;
+    }
+
+    public double getAngularMomentum() {
+        return angularMomentum;
+    }
+
+    public int getClusters() {
+        return clusters;
+    }
+
+    public double getMeanNearestNeighbor() {
+        return meanNearestNeighbor;
+    }
+
+    /**
+     * @return A copy of the nearest neighbour histogram.
+     */
+    public int[] getNearestNeighborHistogram() {
+        return nearestNeighborHistogram.clone();
+    }
+}
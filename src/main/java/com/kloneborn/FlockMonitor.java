@@ -0,0 +1,77 @@
+package com.kloneborn;
+
+import java.util.function.IntConsumer;
+
+/**
+ * JMX view of a {@link Flock}. The flock belongs to the simulation thread, so
+ * attributes are read without locking and may be a tick out of date, and the
+ * population is resized through a callback that hands the work to that thread.
+ */
+class FlockMonitor implements FlockMXBean {
+    private final Flock flock;
+    private final IntConsumer resize;
+
+    FlockMonitor(Flock flock, IntConsumer resize) {
+        this.flock = flock;
+        this.resize = resize;
+    }
+
+    @Override
+    public int getPopulation() {
+        return flock.getBoids().size();
+    }
+
+    @Override
+    public long getTicks() {
+        return flock.getTicks();
+    }
+
+    @Override
+    public double getLastTickTime() {
+        return flock.getLastTickTime();
+    }
+
+    @Override
+    public double getMeanNeighbors() {
+        return flock.getMeanNeighbors();
+    }
+
+    @Override
+    public int getLastCapHits() {
+        return flock.getLastCapHits();
+    }
+
+    @Override
+    public long getTotalCapHits() {
+        return flock.getTotalCapHits();
+    }
+
+    @Override
+    public int getStaggerInterval() {
+        return flock.getStaggerInterval();
+    }
+
+    @Override
+    public double getLastSpawnTime() {
+        return flock.getLastSpawnTime();
+    }
+
+    @Override
+    public double getPolarization() {
+        FlockAnalytics analytics = flock.getAnalytics();
+        return analytics == null ? Double.NaN : analytics.getLatest().getPolarization();
+    }
+
+    @Override
+    public int getClusters() {
+        FlockAnalytics analytics = flock.getAnalytics();
+        return analytics == null ? -1 : analytics.getLatest().getClusters();
+    }
+
+    @Override
+    public void resizePopulation(int count) {
+        if (count < 0)
+            throw new IllegalArgumentException("Population cannot be negative, got " + count);
+        resize.accept(count);
+    }
+}
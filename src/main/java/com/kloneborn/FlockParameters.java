@@ -0,0 +1,122 @@
+package com.kloneborn;
+
+import java.util.ResourceBundle;
+
+/**
+ * Immutable snapshot of the flocking settings chosen in the UI. A change
+ * produces a new snapshot, so the simulation thread always applies a complete
+ * and consistent set of values at a tick boundary. A {@link Flock} holds one
+ * snapshot that all of its boids steer by.
+ */
+public final class FlockParameters {
+    /**
+     * The slider defaults of the {@code system} bundle with every behaviour
+     * switched off.
+     */
+    public static final FlockParameters DEFAULT = fromBundle(ResourceBundle.getBundle("com.kloneborn.system"));
+
+    private final double maxSpeed;
+    private final double maxForce;
+    private final double alignmentForce;
+    private final double cohesionForce;
+    private final double separationForce;
+    private final boolean aligning;
+    private final boolean cohering;
+    private final boolean separating;
+
+    public FlockParameters(double maxSpeed, double maxForce, double alignmentForce, double cohesionForce,
+            double separationForce, boolean aligning, boolean cohering, boolean separating) {
+        this.maxSpeed = maxSpeed;
+        this.maxForce = maxForce;
+        this.alignmentForce = alignmentForce;
+        this.cohesionForce = cohesionForce;
+        this.separationForce = separationForce;
+        this.aligning = aligning;
+        this.cohering = cohering;
+        this.separating = separating;
+    }
+
+    /**
+     * Read the {@code default.slider} values of {@code bundle}, with every
+     * behaviour switched off.
+     */
+    public static FlockParameters fromBundle(ResourceBundle bundle) {
+        return new FlockParameters(Double.parseDouble(bundle.getString("default.slider.max_speed")),
+                Double.parseDouble(bundle.getString("default.slider.max_force")),
+                Double.parseDouble(bundle.getString("default.slider.alignment_force")),
+                Double.parseDouble(bundle.getString("default.slider.cohesion_force")),
+                Double.parseDouble(bundle.getString("default.slider.seperation_force")), false, false, false);
+    }
+
+    public FlockParameters withMaxSpeed(double maxSpeed) {
+        return new FlockParameters(maxSpeed, maxForce, alignmentForce, cohesionForce, separationForce, aligning,
+                cohering, separating);
+    }
+
+    public FlockParameters withMaxForce(double maxForce) {
+        return new FlockParameters(maxSpeed, maxForce, alignmentForce, cohesionForce, separationForce, aligning,
+                cohering, separating);
+    }
+
+    public FlockParameters withAlignmentForce(double alignmentForce) {
+        return new FlockParameters(maxSpeed, maxForce, alignmentForce, cohesionForce, separationForce, aligning,
+                cohering, separating);
+    }
+
+    public FlockParameters withCohesionForce(double cohesionForce) {
+        return new FlockParameters(maxSpeed, maxForce, alignmentForce, cohesionForce, separationForce, aligning,
+                cohering, separating);
+    }
+
+    public FlockParameters withSeparationForce(double separationForce) {
+        return new FlockParameters(maxSpeed, maxForce, alignmentForce, cohesionForce, separationForce, aligning,
+                cohering, separating);
+    }
+
+    public FlockParameters withAligning(boolean aligning) {
+        return new FlockParameters(maxSpeed, maxForce, alignmentForce, cohesionForce, separationForce, aligning,
+                cohering, separating);
+    }
+
+    public FlockParameters withCohering(boolean cohering) {
+        return new FlockParameters(maxSpeed, maxForce, alignmentForce, cohesionForce, separationForce, aligning,
+                cohering, separating);
+    }
+
+    public FlockParameters withSeparating(boolean separating) {
+        return new FlockParameters(maxSpeed, maxForce, alignmentForce, cohesionForce, separationForce, aligning,
+                cohering, separating);
+    }
+
+    public double getMaxSpeed() {
+        return maxSpeed;
+    }
+
+    public double getMaxForce() {
+        return maxForce;
+    }
+
+    public double getAlignmentForce() {
+        return alignmentForce;
+    }
+
+    public double getCohesionForce() {
+        return cohesionForce;
+    }
+
+    public double getSeparationForce() {
+        return separationForce;
+    }
+
+    public boolean isAligning() {
+        return aligning;
+    }
+
+    public boolean isCohering() {
+        return cohering;
+    }
+
+    public boolean isSeparating() {
+        return separating;
+    }
+}
@@ -0,0 +1,357 @@
+package com.kloneborn;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.paint.Color;
+
+/**
+ * Renders flock snapshots offscreen into ARGB pixel buffers and writes them as
+ * a numbered PNG sequence, {@code frame_000000.png} onwards, without a JavaFX
+ * stage.
+ * <p>
+ * A {@link Frame} is captured on the simulation thread, which only copies
+ * positions, headings and colours. Rasterizing and encoding happen on a pool of
+ * worker threads, one frame per worker. At most {@code maxInFlight} frames are
+ * captured but not yet written; {@link #submit} blocks until one finishes, and
+ * pixel buffers are reused between frames, so memory stays bounded however
+ * far the simulation runs ahead.
+ * </p>
+ * <p>
+ * The world is scaled to fit the image and centred. Boids are drawn as the
+ * same triangles as {@link Boid#draw} without the outline, or as a single
+ * pixel when the triangle would be smaller than that.
+ * </p>
+ * <p>
+ * <b>Usage:</b>
+ * {@code java -cp <classpath> com.kloneborn.FrameExporter <directory> [key=value ...]}
+ * runs a headless flock and exports it. The keys are {@code boids} (default
+ * 10000), {@code frames} (600), {@code ticks_per_frame} (1), {@code width}
+ * (3840), {@code height} (2160), {@code world} (world width, default 40 per
+ * square root of the boid count; the height follows the aspect ratio),
+ * {@code threads} (one per core), {@code in_flight} (threads + 1),
+ * {@code layout} (a {@link BoidSpawner.Layout}, default uniform) and
+ * {@code seed} (1).
+ * </p>
+ */
+public class FrameExporter implements AutoCloseable {
+    private static final int BACKGROUND = 0xFFFFFFFF;
+    private static final int OBSTACLE = toArgb(Color.DIMGRAY);
+    private static final double START_SPEED = 2.0;
+    static final int STRIDE = 5;
+
+    private final Path directory;
+    private final int width;
+    private final int height;
+    private final double scale;
+    private final double offsetX;
+    private final double offsetY;
+    private final ExecutorService workers;
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+    private final BlockingQueue<int[]> buffers;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final AtomicInteger written = new AtomicInteger();
+    private int submitted;
+
+    /**
+     * @param directory   Created if missing. Existing frames are overwritten.
+     * @param worldWidth  Width of the world being exported.
+     * @param worldHeight Height of the world being exported.
+     * @param threads     Frames rasterized and encoded at once.
+     * @param maxInFlight Frames captured but not yet written before
+     *                    {@link #submit} blocks, at least {@code threads}.
+     */
+    public FrameExporter(Path directory, int width, int height, double worldWidth, double worldHeight, int threads,
+            int maxInFlight) throws IOException {
+        if (width < 1 || height < 1)
+            throw new IllegalArgumentException("Frame size must be positive, got " + width + "x" + height);
+        if (threads < 1 || maxInFlight < threads)
+            throw new IllegalArgumentException(
+                    "Need at least one thread and as many frames in flight, got " + threads + " and " + maxInFlight);
+        this.directory = Files.createDirectories(directory);
+        this.width = width;
+        this.height = height;
+        this.scale = Math.min(width / worldWidth, height / worldHeight);
+        this.offsetX = (width - worldWidth * scale) / 2;
+        this.offsetY = (height - worldHeight * scale) / 2;
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "frame-exporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.buffers = new ArrayBlockingQueue<>(maxInFlight);
+    }
+
+    /**
+     * Queue {@code frame} as the next image of the sequence, waiting while
+     * {@code maxInFlight} frames are still being written.
+     *
+     * @throws IOException If an earlier frame could not be written.
+     */
+    public void submit(Frame frame) throws IOException, InterruptedException {
+        rethrow();
+        inFlight.acquire();
+        int index = submitted++;
+        workers.execute(() -> {
+            try {
+                int[] pixels = buffers.poll();
+                if (pixels == null)
+                    pixels = new int[width * height];
+                rasterize(frame, pixels);
+                byte[] png = PngEncoder.encode(pixels, width, height, Deflater.BEST_SPEED);
+                buffers.offer(pixels);
+                Files.write(directory.resolve(String.format("frame_%06d.png", index)), png);
+                written.incrementAndGet();
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    /**
+     * Wait for every submitted frame to be written.
+     *
+     * @throws IOException If any frame could not be written, or
+     *                     {@link InterruptedIOException} if interrupted while
+     *                     waiting, with the interrupt flag set again.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            inFlight.acquire(maxInFlight);
+            inFlight.release(maxInFlight);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException interrupted = new InterruptedIOException("Interrupted while writing frames");
+            interrupted.initCause(e);
+            throw interrupted;
+        } finally {
+            workers.shutdownNow();
+        }
+        rethrow();
+    }
+
+    /**
+     * @return The number of frames written so far.
+     */
+    public int getFramesWritten() {
+        return written.get();
+    }
+
+    private void rethrow() throws IOException {
+        Throwable e = failure.get();
+        if (e instanceof IOException)
+            throw (IOException) e;
+        if (e instanceof RuntimeException)
+            throw (RuntimeException) e;
+        if (e instanceof Error)
+            throw (Error) e;
+    }
+
+    private void rasterize(Frame frame, int[] pixels) {
+        Arrays.fill(pixels, BACKGROUND);
+        for (Obstacle obstacle : frame.obstacles)
+            fillObstacle(obstacle, pixels);
+
+        float s = (float) scale, ox = (float) offsetX, oy = (float) offsetY;
+        float[] state = frame.state;
+        for (int i = 0, n = frame.colors.length; i < n; i++) {
+            int k = STRIDE * i;
+            float x = state[k] * s + ox, y = state[k + 1] * s + oy;
+            float hx = state[k + 2], hy = state[k + 3];
+            // Boid.draw: tip at 2h ahead, base corners h to either side of 2h behind
+            float h = state[k + 4] / 2 * s;
+            int color = frame.colors[i];
+            if (h < 0.5f) {
+                int px = (int) x, py = (int) y;
+                if (px >= 0 && px < width && py >= 0 && py < height)
+                    pixels[py * width + px] = color;
+                continue;
+            }
+            fillTriangle(pixels, color, x + 2 * h * hx, y + 2 * h * hy,
+                    x + h * hy - 2 * h * hx, y - h * hx - 2 * h * hy,
+                    x - h * hy - 2 * h * hx, y + h * hx - 2 * h * hy);
+        }
+    }
+
+    private void fillObstacle(Obstacle obstacle, int[] pixels) {
+        Rectangle2D bounds = obstacle.getBounds();
+        int minX = Math.max(0, (int) Math.floor(bounds.getMinX() * scale + offsetX));
+        int maxX = Math.min(width - 1, (int) Math.ceil(bounds.getMaxX() * scale + offsetX));
+        int minY = Math.max(0, (int) Math.floor(bounds.getMinY() * scale + offsetY));
+        int maxY = Math.min(height - 1, (int) Math.ceil(bounds.getMaxY() * scale + offsetY));
+        for (int py = minY; py <= maxY; py++)
+            for (int px = minX; px <= maxX; px++)
+                if (obstacle.contains((px + 0.5 - offsetX) / scale, (py + 0.5 - offsetY) / scale))
+                    pixels[py * width + px] = OBSTACLE;
+    }
+
+    /**
+     * Fill the pixels whose centres lie inside triangle {@code abc}.
+     */
+    private void fillTriangle(int[] pixels, int color, float ax, float ay, float bx, float by, float cx,
+            float cy) {
+        float area = (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+        if (area == 0)
+            return;
+        if (area < 0) {
+            float tx = bx, ty = by;
+            bx = cx;
+            by = cy;
+            cx = tx;
+            cy = ty;
+        }
+        int minX = Math.max(0, (int) Math.floor(Math.min(ax, Math.min(bx, cx))));
+        int maxX = Math.min(width - 1, (int) Math.ceil(Math.max(ax, Math.max(bx, cx))));
+        int minY = Math.max(0, (int) Math.floor(Math.min(ay, Math.min(by, cy))));
+        int maxY = Math.min(height - 1, (int) Math.ceil(Math.max(ay, Math.max(by, cy))));
+        for (int py = minY; py <= maxY; py++) {
+            float y = py + 0.5f;
+            int row = py * width;
+            for (int px = minX; px <= maxX; px++) {
+                float x = px + 0.5f;
+                if ((bx - ax) * (y - ay) - (by - ay) * (x - ax) >= 0
+                        && (cx - bx) * (y - by) - (cy - by) * (x - bx) >= 0
+                        && (ax - cx) * (y - cy) - (ay - cy) * (x - cx) >= 0)
+                    pixels[row + px] = color;
+            }
+        }
+    }
+
+    static int toArgb(Color color) {
+        return (int) Math.round(color.getOpacity() * 255) << 24 | (int) Math.round(color.getRed() * 255) << 16
+                | (int) Math.round(color.getGreen() * 255) << 8 | (int) Math.round(color.getBlue() * 255);
+    }
+
+    /**
+     * What a flock looked like at one tick, detached from the live boids so it
+     * can be rendered on another thread or kept for later.
+     */
+    public static final class Frame {
+        // x, y, heading x, heading y, radius per boid
+        private final float[] state;
+        private final int[] colors;
+        private final List<Obstacle> obstacles;
+
+        /**
+         * @param state     x, y, heading x, heading y and radius of every boid.
+         * @param colors    ARGB colour of every boid.
+         * @param obstacles Obstacles no longer edited by anyone else.
+         */
+        Frame(float[] state, int[] colors, List<Obstacle> obstacles) {
+            this.state = state;
+            this.colors = colors;
+            this.obstacles = obstacles;
+        }
+
+        /**
+         * Capture the boids and obstacles of {@code flock}. Call on the thread
+         * that updates it.
+         */
+        public static Frame capture(Flock flock) {
+            List<Boid> boids = flock.getBoids();
+            int n = boids.size();
+            float[] state = new float[STRIDE * n];
+            int[] colors = new int[n];
+            Map<Species, Integer> argb = new IdentityHashMap<>();
+            for (int i = 0; i < n; i++) {
+                Boid boid = boids.get(i);
+                int k = STRIDE * i;
+                state[k] = (float) boid.location.getX();
+                state[k + 1] = (float) boid.location.getY();
+                state[k + 2] = (float) boid.getHeadingX();
+                state[k + 3] = (float) boid.getHeadingY();
+                state[k + 4] = (float) boid.getRadius();
+                colors[i] = argb.computeIfAbsent(boid.getSpecies(), s -> toArgb(s.getFill()) | 0xFF000000);
+            }
+            List<Obstacle> obstacles = new ArrayList<>();
+            for (Obstacle obstacle : flock.getObstacles().getObstacles())
+                obstacles.add(obstacle.copy());
+            return new Frame(state, colors, obstacles);
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 0) {
+            System.err.println("Usage: FrameExporter <directory> [key=value ...]");
+            System.exit(1);
+        }
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            int eq = args[i].indexOf('=');
+            if (eq < 0)
+                throw new IllegalArgumentException("Expected key=value but got " + args[i]);
+            options.put(args[i].substring(0, eq), args[i].substring(eq + 1));
+        }
+        int boids = Integer.parseInt(options.getOrDefault("boids", "10000"));
+        int frames = Integer.parseInt(options.getOrDefault("frames", "600"));
+        int ticksPerFrame = Integer.parseInt(options.getOrDefault("ticks_per_frame", "1"));
+        int width = Integer.parseInt(options.getOrDefault("width", "3840"));
+        int height = Integer.parseInt(options.getOrDefault("height", "2160"));
+        double worldWidth = Double.parseDouble(
+                options.getOrDefault("world", String.valueOf(Math.ceil(Math.sqrt(boids) * 40))));
+        double worldHeight = worldWidth * height / width;
+        int threads = Integer.parseInt(
+                options.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        int maxInFlight = Integer.parseInt(options.getOrDefault("in_flight", String.valueOf(threads + 1)));
+
+        ResourceBundle bundle = ResourceBundle.getBundle("com.kloneborn.system");
+        Flock flock = new Flock(worldWidth, worldHeight);
+        flock.setSpecies(Species.load(bundle),
+                InteractionMatrix.parse(bundle.getString("default.species.interactions")));
+        flock.setAligning(true);
+        flock.setCohering(true);
+        flock.setSeparating(true);
+        BoidSpawner spawner = new BoidSpawner(worldWidth, worldHeight,
+                Long.parseLong(options.getOrDefault("seed", "1")));
+        spawner.setLayout(BoidSpawner.Layout.fromString(options.getOrDefault("layout", "uniform")));
+        spawner.setSpeed(START_SPEED);
+        spawner.setSpecies(flock.getSpecies());
+        flock.getBoids().addAll(spawner.spawn(boids));
+        System.err.println(String.format(Locale.ROOT, "Spawned %d boids in %.1f ms", boids,
+                spawner.getLastSpawnTime()));
+        // Large exports are simulation bound too, so use every core for the ticks as well
+        flock.setParallel(true);
+
+        long start = System.nanoTime();
+        try (FrameExporter exporter = new FrameExporter(Paths.get(args[0]), width, height, worldWidth,
+                worldHeight, threads, maxInFlight)) {
+            for (int f = 0; f < frames; f++) {
+                for (int t = 0; t < ticksPerFrame; t++)
+                    flock.update();
+                exporter.submit(Frame.capture(flock));
+                if ((f + 1) % 60 == 0)
+                    System.err.printf("%d/%d frames submitted, %d written%n", f + 1, frames,
+                            exporter.getFramesWritten());
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.println(String.format(Locale.ROOT, "%d frames of %dx%d with %d boids in %.1f s, %.2f frames/s",
+                frames, width, height, boids, seconds, frames / seconds));
+    }
+}
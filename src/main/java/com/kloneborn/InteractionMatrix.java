@@ -0,0 +1,91 @@
+package com.kloneborn;
+
+/**
+ * How strongly each species reacts to every other species.
+ * <p>
+ * {@code get(s, t)} is the weight species {@code s} gives to neighbours of
+ * species {@code t}: a positive weight flocks with them (alignment, cohesion and
+ * separation scaled by the weight), a negative weight flees from them, and
+ * {@code 0} ignores them entirely so their part of the spatial index is never
+ * scanned.
+ * </p>
+ */
+public class InteractionMatrix {
+    private final int size;
+    private final double[] weights;
+    // For every species, the species it does not ignore
+    private final int[][] interacting;
+    private final boolean mutual;
+
+    public InteractionMatrix(double[][] weights) {
+        this.size = weights.length;
+        this.weights = new double[size * size];
+        this.interacting = new int[size][];
+        for (int s = 0; s < size; s++) {
+            if (weights[s].length != size)
+                throw new IllegalArgumentException("Interaction matrix must be square, row " + s + " has "
+                        + weights[s].length + " entries for " + size + " species");
+            int count = 0;
+            for (int t = 0; t < size; t++) {
+                this.weights[s * size + t] = weights[s][t];
+                if (weights[s][t] != 0)
+                    count++;
+            }
+            interacting[s] = new int[count];
+            for (int t = 0, i = 0; t < size; t++)
+                if (weights[s][t] != 0)
+                    interacting[s][i++] = t;
+        }
+        boolean mutual = true;
+        for (int s = 0; s < size; s++)
+            for (int t = 0; t < size; t++)
+                mutual &= (this.weights[s * size + t] != 0) == (this.weights[t * size + s] != 0);
+        this.mutual = mutual;
+    }
+
+    /**
+     * Parse a matrix written as rows separated by {@code ;} and weights separated
+     * by {@code ,}, for example {@code "1.0,-2.0;0.5,0.0"}.
+     */
+    public static InteractionMatrix parse(String value) {
+        String[] rows = value.split(";");
+        double[][] weights = new double[rows.length][];
+        for (int s = 0; s < rows.length; s++) {
+            String[] cells = rows[s].split(",");
+            weights[s] = new double[cells.length];
+            for (int t = 0; t < cells.length; t++)
+                weights[s][t] = Double.parseDouble(cells[t].trim());
+        }
+        return new InteractionMatrix(weights);
+    }
+
+    /**
+     * A single species that flocks with itself.
+     */
+    public static InteractionMatrix single() {
+        return new InteractionMatrix(new double[][] { { 1.0 } });
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double get(int species, int other) {
+        return weights[species * size + other];
+    }
+
+    /**
+     * @return {@code true} if every species that reacts to another is also
+     *         reacted to by it, whatever the weights.
+     */
+    public boolean isMutual() {
+        return mutual;
+    }
+
+    /**
+     * @return The species that {@code species} reacts to, in index order.
+     */
+    public int[] interacting(int species) {
+        return interacting[species];
+    }
+}
@@ -0,0 +1,115 @@
+package com.kloneborn;
+
+/**
+ * Watches how long each simulation tick costs compared to the time available
+ * for it and walks a ladder of {@link Level degradations} to keep the loop from
+ * falling behind.
+ * <p>
+ * The cost is smoothed with an exponential moving average. The governor only
+ * moves one level at a time, and only after the smoothed cost stayed above
+ * {@link #OVERLOAD} (or below {@link #HEADROOM}) of the budget for
+ * {@link #SETTLE_TICKS} ticks in a row, which gives each step time to show its
+ * effect before the next one is taken.
+ * </p>
+ * <p>
+ * Only the simulation thread changes the governor; the state is volatile so
+ * monitors on other threads read current values.
+ * </p>
+ */
+public class LoadGovernor {
+    /**
+     * Degradations in the order they are applied. Each level includes the ones
+     * before it.
+     */
+    public enum Level {
+        NORMAL, DROP_FRAMES, NEIGHBOR_CAP, AMORTIZED, CHEAP_RENDER;
+
+        public Level degrade() {
+            return this == CHEAP_RENDER ? this : values()[ordinal() + 1];
+        }
+
+        public Level recover() {
+            return this == NORMAL ? this : values()[ordinal() - 1];
+        }
+
+        public boolean includes(Level other) {
+            return compareTo(other) >= 0;
+        }
+    }
+
+    public static final double OVERLOAD = 0.9;
+    public static final double HEADROOM = 0.5;
+    public static final int SETTLE_TICKS = 30;
+    private static final double SMOOTHING = 0.1;
+
+    private volatile boolean enabled = true;
+    private volatile Level level = Level.NORMAL;
+    private volatile double averageCost;
+    private volatile int overloadedTicks;
+    private volatile int idleTicks;
+
+    public LoadGovernor() {
+    }
+
+    /**
+     * Record the cost of one tick.
+     *
+     * @param cost   Time the tick took in milliseconds.
+     * @param budget Time available for one tick in milliseconds.
+     * @return {@code true} if the level changed.
+     */
+    public boolean record(double cost, double budget) {
+        averageCost = averageCost == 0 ? cost : averageCost + SMOOTHING * (cost - averageCost);
+        if (!enabled)
+            return false;
+
+        if (averageCost > budget * OVERLOAD) {
+            idleTicks = 0;
+            if (++overloadedTicks >= SETTLE_TICKS && level != Level.CHEAP_RENDER)
+                return setLevel(level.degrade());
+        } else if (averageCost < budget * HEADROOM) {
+            overloadedTicks = 0;
+            if (++idleTicks >= SETTLE_TICKS && level != Level.NORMAL)
+                return setLevel(level.recover());
+        } else {
+            overloadedTicks = 0;
+            idleTicks = 0;
+        }
+        return false;
+    }
+
+    private boolean setLevel(Level level) {
+        this.level = level;
+        overloadedTicks = 0;
+        idleTicks = 0;
+        return true;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    /**
+     * @return The smoothed tick cost in milliseconds.
+     */
+    public double getAverageCost() {
+        return averageCost;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turn the governor on or off. Turning it off drops straight back to
+     * {@link Level#NORMAL}.
+     *
+     * @return {@code true} if the level changed.
+     */
+    public boolean setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled && level != Level.NORMAL)
+            return setLevel(Level.NORMAL);
+        return false;
+    }
+}
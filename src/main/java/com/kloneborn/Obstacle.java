@@ -0,0 +1,131 @@
+package com.kloneborn;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.canvas.GraphicsContext;
+
+/**
+ * Static shape boids have to steer around. Obstacles are not tested by boids
+ * directly; they are baked into a {@link DistanceField}.
+ */
+public abstract class Obstacle {
+
+    /**
+     * Only the shapes in this file, which know how to move, copy and draw
+     * themselves.
+     */
+    Obstacle() {
+    }
+
+    /**
+     * Signed distance from {@code (x, y)} to the edge of the shape, negative
+     * inside.
+     */
+    public abstract double distance(double x, double y);
+
+    /**
+     * @return Axis aligned bounds of the shape.
+     */
+    public abstract Rectangle2D getBounds();
+
+    abstract void translate(double dx, double dy);
+
+    /**
+     * @return An independent copy, which does not follow later moves.
+     */
+    abstract Obstacle copy();
+
+    abstract void draw(GraphicsContext gc);
+
+    public boolean contains(double x, double y) {
+        return distance(x, y) <= 0;
+    }
+
+    public static class Circle extends Obstacle {
+        private double centerX;
+        private double centerY;
+        private final double radius;
+
+        public Circle(double centerX, double centerY, double radius) {
+            this.centerX = centerX;
+            this.centerY = centerY;
+            this.radius = radius;
+        }
+
+        @Override
+        public double distance(double x, double y) {
+            double dx = x - centerX;
+            double dy = y - centerY;
+            return Math.sqrt(dx * dx + dy * dy) - radius;
+        }
+
+        @Override
+        public Rectangle2D getBounds() {
+            return new Rectangle2D(centerX - radius, centerY - radius, 2 * radius, 2 * radius);
+        }
+
+        @Override
+        void translate(double dx, double dy) {
+            centerX += dx;
+            centerY += dy;
+        }
+
+        @Override
+        Obstacle copy() {
+            return new Circle(centerX, centerY, radius);
+        }
+
+        @Override
+        void draw(GraphicsContext gc) {
+            gc.fillOval(centerX - radius, centerY - radius, 2 * radius, 2 * radius);
+        }
+    }
+
+    /**
+     * Axis aligned rectangle, also used for walls.
+     */
+    public static class Box extends Obstacle {
+        private double minX;
+        private double minY;
+        private final double width;
+        private final double height;
+
+        public Box(double minX, double minY, double width, double height) {
+            this.minX = minX;
+            this.minY = minY;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public double distance(double x, double y) {
+            double halfW = width / 2;
+            double halfH = height / 2;
+            double dx = Math.abs(x - (minX + halfW)) - halfW;
+            double dy = Math.abs(y - (minY + halfH)) - halfH;
+            double ox = Math.max(dx, 0);
+            double oy = Math.max(dy, 0);
+            return Math.sqrt(ox * ox + oy * oy) + Math.min(Math.max(dx, dy), 0);
+        }
+
+        @Override
+        public Rectangle2D getBounds() {
+            return new Rectangle2D(minX, minY, width, height);
+        }
+
+        @Override
+        void translate(double dx, double dy) {
+            minX += dx;
+            minY += dy;
+        }
+
+        @Override
+        Obstacle copy() {
+            return new Box(minX, minY, width, height);
+        }
+
+        @Override
+        void draw(GraphicsContext gc) {
+            gc.fillRect(minX, minY, width, height);
+        }
+    }
+}
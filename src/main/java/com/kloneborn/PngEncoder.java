@@ -0,0 +1,80 @@
+package com.kloneborn;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Minimal PNG writer for opaque ARGB pixel buffers, so frames can be encoded
+ * without AWT. Pixels are written as 8 bit RGB with the {@code Sub} filter,
+ * which keeps flat backgrounds small even at the fastest compression level.
+ */
+final class PngEncoder {
+    private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+    private static final int COLOR_TYPE_RGB = 2;
+    private static final int FILTER_SUB = 1;
+
+    private PngEncoder() {
+    }
+
+    /**
+     * @param argb   Pixels, row by row. Alpha is ignored.
+     * @param level  Deflate level, {@link Deflater#BEST_SPEED} to
+     *               {@link Deflater#BEST_COMPRESSION}.
+     * @return The PNG file contents.
+     */
+    static byte[] encode(int[] argb, int width, int height, int level) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(width * height / 4);
+        Deflater deflater = new Deflater(level);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(compressed, deflater, 1 << 16)) {
+            byte[] row = new byte[1 + width * 3];
+            row[0] = FILTER_SUB;
+            for (int y = 0; y < height; y++) {
+                int previous = 0;
+                for (int x = 0, i = 1; x < width; x++) {
+                    int pixel = argb[y * width + x];
+                    // Each byte minus the same byte of the pixel to the left
+                    row[i++] = (byte) ((pixel >> 16) - (previous >> 16));
+                    row[i++] = (byte) ((pixel >> 8) - (previous >> 8));
+                    row[i++] = (byte) (pixel - previous);
+                    previous = pixel;
+                }
+                out.write(row);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream(compressed.size() + 64);
+        DataOutputStream data = new DataOutputStream(file);
+        data.write(SIGNATURE);
+        ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+        DataOutputStream h = new DataOutputStream(header);
+        h.writeInt(width);
+        h.writeInt(height);
+        h.writeByte(8);
+        h.writeByte(COLOR_TYPE_RGB);
+        h.writeByte(0); // Deflate
+        h.writeByte(0); // Adaptive filtering
+        h.writeByte(0); // No interlace
+        chunk(data, "IHDR", header.toByteArray());
+        chunk(data, "IDAT", compressed.toByteArray());
+        chunk(data, "IEND", new byte[0]);
+        return file.toByteArray();
+    }
+
+    private static void chunk(DataOutputStream out, String type, byte[] body) throws IOException {
+        byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(name);
+        crc.update(body);
+        out.writeInt(body.length);
+        out.write(name);
+        out.write(body);
+        out.writeInt((int) crc.getValue());
+    }
+}
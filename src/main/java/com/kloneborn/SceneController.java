@@ -3,13 +3,16 @@ package com.kloneborn;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.ResourceBundle;
+import java.util.function.UnaryOperator;
 
-import com.kloneborn.BoidUtils.BoidGenerator;
-
+import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
+import javafx.geometry.Point2D;
+import javafx.geometry.Rectangle2D;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.Button;
 import javafx.scene.control.CheckBox;
 import javafx.scene.control.ColorPicker;
 import javafx.scene.control.Label;
@@ -17,6 +20,8 @@ import javafx.scene.control.RadioButton;
 import javafx.scene.control.Slider;
 import javafx.scene.control.TextField;
 import javafx.scene.control.ToggleGroup;
+import javafx.scene.input.MouseButton;
+import javafx.scene.paint.Color;
 
 public class SceneController {
 
@@ -86,22 +91,91 @@ public class SceneController {
     @FXML
     private CheckBox is_seperate;
 
+    @FXML
+    private Slider neighbor_cap_sld;
+
+    @FXML
+    private Label neighbor_cap_out;
+
+    @FXML
+    private Label cap_hits_out;
+
+    @FXML
+    private Slider stagger_sld;
+
+    @FXML
+    private Label stagger_out;
+
+    @FXML
+    private CheckBox is_auto_stagger;
+
+    @FXML
+    private Label stagger_status_out;
+
+    @FXML
+    private Slider substeps_sld;
+
+    @FXML
+    private Label substeps_out;
+
+    @FXML
+    private CheckBox is_governed;
+
+    @FXML
+    private Label load_level_out;
+
+    @FXML
+    private CheckBox is_density_heading;
+
+    @FXML
+    private Label render_mode_out;
+
+    @FXML
+    private TextField warp_ticks;
+
+    @FXML
+    private TextField warp_seconds;
+
+    @FXML
+    private Button warp_btn;
+
+    @FXML
+    private Label warp_out;
+
+    @FXML
+    private Label metrics_out;
+
     private BoidSimulator simulator;
 
     @FXML
     void setSimulationToPause(ActionEvent event) {
-
+        simulator.pause();
     }
 
     @FXML
     void setSimulationToPlay(ActionEvent event) {
-
+        simulator.resume();
     }
 
     @FXML
     void startSimulationWithBoidCount(ActionEvent event) {
         Integer var = Integer.valueOf(boids_count.getText());
-        simulator.refresh(var);
+        simulator.flock.setPopulation(var);
+    }
+
+    @FXML
+    void fastForward(ActionEvent event) {
+        if (simulator.isFastForwarding()) {
+            simulator.cancelFastForward();
+            return;
+        }
+        long ticks = warp_ticks.getText().isBlank() ? 0 : Long.parseLong(warp_ticks.getText().trim());
+        double seconds = warp_seconds.getText().isBlank() ? 0 : Double.parseDouble(warp_seconds.getText().trim());
+        if (ticks <= 0 && seconds <= 0) {
+            warp_out.setText("Enter ticks or seconds");
+            return;
+        }
+        simulator.fastForward(ticks, (long) (seconds * 1000));
     }
 
     @FXML
@@ -121,6 +195,11 @@ public class SceneController {
                 cohesion_out);
         init_slider(seperation_sld, Double.parseDouble(bundle.getString("default.slider.seperation_force")), "%.2f",
                 seperation_out);
+        init_slider(neighbor_cap_sld, Double.parseDouble(bundle.getString("default.slider.neighbor_cap")), "%.0f",
+                neighbor_cap_out);
+        init_slider(stagger_sld, Double.parseDouble(bundle.getString("default.slider.stagger")), "%.0f", stagger_out);
+        init_slider(substeps_sld, Double.parseDouble(bundle.getString("default.slider.substeps")), "%.0f",
+                substeps_out);
 
         // Initialize radio buttons for edge and shape policy
         selectRadioButton(edgePolicy, bundle.getString("default.radio_buttons.edge_policy"));
@@ -130,68 +209,314 @@ public class SceneController {
         String defaultColor = bundle.getString("default.color_picker.fill");
         fill_picker.setValue(javafx.scene.paint.Color.web(defaultColor));
 
+        warp_ticks.setText(bundle.getString("default.property.warp_ticks"));
+        warp_seconds.setText(bundle.getString("default.property.warp_seconds"));
+
         String numberOfBoids = bundle.getString("default.property.boids_count");
         boids_count.setText(numberOfBoids);
 
-        world.setWidth(Double.parseDouble(bundle.getString("default.property.world_width")));
-        world.setHeight(Double.parseDouble(bundle.getString("default.property.world_height")));
-
-        simulator = new BoidSimulator(Integer.parseInt(numberOfBoids));
+        world.setWidth(Double.parseDouble(bundle.getString("default.property.canvas_width")));
+        world.setHeight(Double.parseDouble(bundle.getString("default.property.canvas_height")));
+
+        List<Species> species = Species.load(bundle);
+        // The fill picker colours the first species
+        species.get(0).setFill(fill_picker.getValue());
+
+        simulator = new BoidSimulator(Integer.parseInt(numberOfBoids),
+                Double.parseDouble(bundle.getString("default.property.world_width")),
+                Double.parseDouble(bundle.getString("default.property.world_height")),
+                species, InteractionMatrix.parse(bundle.getString("default.species.interactions")),
+                new FlockParameters(max_speed_sld.getValue(), max_force_sld.getValue(), alignment_sld.getValue(),
+                        cohesion_sld.getValue(), seperation_sld.getValue(), is_align.isSelected(),
+                        is_cohere.isSelected(), is_seperate.isSelected()));
+        simulator.densityThreshold = Double.parseDouble(bundle.getString("default.property.density_threshold"));
+        simulator.obstacleRadius = Double.parseDouble(bundle.getString("default.property.obstacle_radius"));
+        simulator.spawner.setLayout(BoidSpawner.Layout.fromString(bundle.getString("default.property.spawn_layout")));
+        simulator.flock.setAnalytics(new FlockAnalytics(
+                Integer.parseInt(bundle.getString("default.property.analytics_interval")), Boid.COHESION_RADIUS));
+        simulator.setNeighborCap((int) neighbor_cap_sld.getValue());
+        simulator.setStagger((int) stagger_sld.getValue(), is_auto_stagger.isSelected());
+        simulator.flock.setSubsteps((int) substeps_sld.getValue());
+        simulator.setGoverned(is_governed.isSelected());
         simulator.framesPerSecondProperty().bindBidirectional(fps_slid.valueProperty());
         simulator.updatesPerSecondProperty().bindBidirectional(ups_sld.valueProperty());
+        init_controls();
+        init_camera_controls(simulator.camera);
+        simulator.registerMBean("boids");
+        simulator.registerMBean(new FlockMonitor(simulator.flock, count -> {
+            simulator.flock.setPopulation(count);
+            Platform.runLater(() -> boids_count.setText(String.valueOf(count)));
+        }), "Flock", "boids");
         simulator.start();
     }
 
+    /**
+     * Forward control changes to the simulation as commands. Nothing here
+     * touches simulation state directly; each change is applied by the
+     * simulation thread at the next tick boundary.
+     */
+    private void init_controls() {
+        max_speed_sld.valueProperty().addListener(
+                (obv, old, nvw) -> simulator.change(p -> p.withMaxSpeed(nvw.doubleValue())));
+        max_force_sld.valueProperty().addListener(
+                (obv, old, nvw) -> simulator.change(p -> p.withMaxForce(nvw.doubleValue())));
+        alignment_sld.valueProperty().addListener(
+                (obv, old, nvw) -> simulator.change(p -> p.withAlignmentForce(nvw.doubleValue())));
+        cohesion_sld.valueProperty().addListener(
+                (obv, old, nvw) -> simulator.change(p -> p.withCohesionForce(nvw.doubleValue())));
+        seperation_sld.valueProperty().addListener(
+                (obv, old, nvw) -> simulator.change(p -> p.withSeparationForce(nvw.doubleValue())));
+        is_align.selectedProperty().addListener((obv, old, nvw) -> simulator.change(p -> p.withAligning(nvw)));
+        is_cohere.selectedProperty().addListener((obv, old, nvw) -> simulator.change(p -> p.withCohering(nvw)));
+        is_seperate.selectedProperty().addListener((obv, old, nvw) -> simulator.change(p -> p.withSeparating(nvw)));
+
+        neighbor_cap_sld.valueProperty().addListener(
+                (obv, old, nvw) -> simulator.post(() -> simulator.setNeighborCap(nvw.intValue())));
+        stagger_sld.valueProperty().addListener((obv, old, nvw) -> {
+            boolean adaptive = is_auto_stagger.isSelected();
+            simulator.post(() -> simulator.setStagger(nvw.intValue(), adaptive));
+        });
+        is_auto_stagger.selectedProperty().addListener((obv, old, nvw) -> {
+            int interval = (int) stagger_sld.getValue();
+            simulator.post(() -> simulator.setStagger(interval, nvw));
+        });
+        substeps_sld.valueProperty().addListener(
+                (obv, old, nvw) -> simulator.post(() -> simulator.flock.setSubsteps(nvw.intValue())));
+        is_governed.selectedProperty().addListener((obv, old, nvw) -> simulator.post(() -> simulator.setGoverned(nvw)));
+        is_density_heading.selectedProperty().addListener((obv, old, nvw) -> simulator.post(() -> simulator.density
+                .setColorMode(nvw ? DensityRenderer.ColorMode.HEADING : DensityRenderer.ColorMode.COUNT)));
+        fill_picker.valueProperty().addListener(
+                (obv, old, nvw) -> simulator.post(() -> simulator.flock.getSpecies().get(0).setFill(nvw)));
+    }
+
+    /**
+     * Drag to pan, scroll to zoom around the cursor and double click to fit the
+     * whole world on the canvas. With the secondary button, click empty space to
+     * place an obstacle and drag an obstacle to move it; the middle button removes
+     * one.
+     */
+    private void init_camera_controls(Camera camera) {
+        double[] last = new double[2];
+        world.setOnMousePressed(evt -> {
+            last[0] = evt.getX();
+            last[1] = evt.getY();
+            Point2D at = camera.toWorld(evt.getX(), evt.getY());
+            if (evt.getButton() == MouseButton.PRIMARY && evt.getClickCount() == 2)
+                camera.fit();
+            else if (evt.getButton() == MouseButton.SECONDARY)
+                simulator.grabObstacle(at.getX(), at.getY());
+            else if (evt.getButton() == MouseButton.MIDDLE)
+                simulator.removeObstacle(at.getX(), at.getY());
+        });
+        world.setOnMouseDragged(evt -> {
+            if (evt.getButton() == MouseButton.SECONDARY) {
+                Point2D from = camera.toWorld(last[0], last[1]);
+                Point2D to = camera.toWorld(evt.getX(), evt.getY());
+                simulator.dragObstacle(to.getX() - from.getX(), to.getY() - from.getY());
+            } else if (evt.getButton() == MouseButton.PRIMARY) {
+                camera.pan(evt.getX() - last[0], evt.getY() - last[1]);
+            }
+            last[0] = evt.getX();
+            last[1] = evt.getY();
+        });
+        world.setOnScroll(evt -> camera.zoom(Math.pow(1.001, evt.getDeltaY()), evt.getX(), evt.getY()));
+    }
+
     private class BoidSimulator extends SimulatorBase {
-        private final List<Boid> boids = new ArrayList<>();
+        private static final int GOVERNED_NEIGHBOR_CAP = 16;
+        // Padding around the view covering the boid shape and one tick of movement
+        private static final double CULL_MARGIN = 20.0;
+        private static final int DENSITY_BIN_SIZE = 4;
+        private static final long SEED = 342521;
+        private final Flock flock;
+        private final Camera camera;
+        private final DensityRenderer density;
+        // Visible boids per screen pixel above which the density view is drawn
+        private double densityThreshold;
+        private final List<Boid> visible = new ArrayList<>();
         private double width;
         private double height;
         private GraphicsContext graphics;
         private double randVelocityMagnitude = 10;
+        private final BoidSpawner spawner;
+        // Settings chosen in the UI, before the load governor adjusts them
+        private int neighborCap;
+        private int staggerInterval = 1;
+        private boolean autoStagger;
+        private LoadGovernor.Level loadLevel = LoadGovernor.Level.NORMAL;
+        private double obstacleRadius;
+        private Obstacle grabbed;
 
         // Initalizer
-        public BoidSimulator(int count) {
-            this.width = world.getWidth();
-            this.height = world.getHeight();
+        public BoidSimulator(int count, double width, double height, List<Species> species,
+                InteractionMatrix interactions, FlockParameters parameters) {
+            this.width = width;
+            this.height = height;
             this.graphics = world.getGraphicsContext2D();
-            refresh(count);
-            Launcher.getStage().setOnCloseRequest(evt -> setRunning(false));
-        }
-
-        private void refresh(int count) {
-            boids.clear();
-            boids.addAll(BoidGenerator.generateBoids(342521, count, width, height, randVelocityMagnitude));
-            // Update velocities for all boids
-            for (Boid boid : boids) {
-                boid.setVelocity(BoidUtils.randVelocity(randVelocityMagnitude));
-                boid.properties.maxSpeedProperty().bindBidirectional(max_speed_sld.valueProperty());
-                boid.properties.maxForceProperty().bindBidirectional(max_force_sld.valueProperty());
-                boid.properties.alignmentForceProperty().bindBidirectional(alignment_sld.valueProperty());
-                boid.properties.cohesionForceProperty().bindBidirectional(cohesion_sld.valueProperty());
-                boid.properties.separationForceProperty().bindBidirectional(seperation_sld.valueProperty());
-                boid.properties.fillProperty().bind(fill_picker.valueProperty());
-            }
+            this.flock = new Flock(width, height);
+            flock.setSpecies(species, interactions);
+            this.camera = new Camera(width, height, world.getWidth(), world.getHeight());
+            this.density = new DensityRenderer(world.getWidth(), world.getHeight(), DENSITY_BIN_SIZE);
+            flock.setParameters(parameters);
+            // Same seed the flock has always started from, also used to pick boids to remove
+            this.spawner = new BoidSpawner(width, height, SEED);
+            flock.setSeed(SEED);
+            spawner.setSpeed(randVelocityMagnitude);
+            spawner.setSpecies(species);
+            flock.setSpawner(spawner::spawn);
+            flock.setPopulation(count);
+            Launcher.getStage().setOnCloseRequest(evt -> stop());
+        }
+
+        /**
+         * @param cap Neighbors considered per behavior, {@code 0} for no cap.
+         */
+        private void setNeighborCap(int cap) {
+            this.neighborCap = cap;
+            applySettings();
+        }
+
+        private void setStagger(int interval, boolean adaptive) {
+            this.staggerInterval = interval;
+            this.autoStagger = adaptive;
+            applySettings();
+        }
+
+        /**
+         * Push the UI settings to the flock, tightened to whatever the current load
+         * level demands.
+         */
+        private void applySettings() {
+            int cap = neighborCap <= 0 ? Flock.UNLIMITED_NEIGHBORS : neighborCap;
+            if (loadLevel.includes(LoadGovernor.Level.NEIGHBOR_CAP))
+                cap = Math.min(cap, GOVERNED_NEIGHBOR_CAP);
+            flock.setNeighborCap(cap);
+
+            boolean adaptive = autoStagger || loadLevel.includes(LoadGovernor.Level.AMORTIZED);
+            flock.setAdaptiveStagger(adaptive);
+            if (!adaptive)
+                flock.setStaggerInterval(staggerInterval);
+        }
+
+        @Override
+        protected void onLoadLevelChanged(LoadGovernor.Level level) {
+            this.loadLevel = level;
+            applySettings();
+        }
+
+        /**
+         * Pick up the obstacle at {@code (x, y)}, placing a new one there if there
+         * is none.
+         */
+        private void grabObstacle(double x, double y) {
+            post(() -> {
+                DistanceField obstacles = flock.getObstacles();
+                grabbed = obstacles.obstacleAt(x, y);
+                if (grabbed == null) {
+                    grabbed = new Obstacle.Circle(x, y, obstacleRadius);
+                    obstacles.add(grabbed);
+                }
+            });
+        }
+
+        private void dragObstacle(double dx, double dy) {
+            post(() -> {
+                if (grabbed != null)
+                    flock.getObstacles().move(grabbed, dx, dy);
+            });
+        }
+
+        private void removeObstacle(double x, double y) {
+            post(() -> {
+                Obstacle obstacle = flock.getObstacles().obstacleAt(x, y);
+                if (obstacle != null)
+                    flock.getObstacles().remove(obstacle);
+            });
+        }
+
+        @Override
+        protected void onFastForwardStarted() {
+            flock.setParallel(true);
+            Platform.runLater(() -> warp_btn.setText("Stop"));
+        }
+
+        @Override
+        protected void onFastForwardProgress(long ticks, double ticksPerSecond) {
+            String progress = String.format("%,d ticks at %,.0f ticks/s", ticks, ticksPerSecond);
+            Platform.runLater(() -> warp_out.setText(progress));
+        }
+
+        @Override
+        protected void onFastForwardFinished(long ticks, double ticksPerSecond) {
+            flock.setParallel(false);
+            String progress = String.format("Ran %,d ticks at %,.0f ticks/s", ticks, ticksPerSecond);
+            Platform.runLater(() -> {
+                warp_out.setText(progress);
+                warp_btn.setText("Go");
+            });
+        }
+
+        /**
+         * Queue a change to the flock parameters. Changes queued before the same
+         * tick are applied together.
+         */
+        private void change(UnaryOperator<FlockParameters> change) {
+            post(() -> flock.setParameters(change.apply(flock.getParameters())));
         }
 
         @Override
         protected void update(double dt) {
-            for (Boid boid : boids) {
-                if (is_align.isSelected())
-                    boid.align(boids);
-                if (is_cohere.isSelected())
-                    boid.cohere(boids);
-                if (is_seperate.isSelected())
-                    boid.seperate(boids);
-                boid.update();
-            }
+            flock.setTickBudget(dt);
+            flock.update(dt);
         }
 
         @Override
         protected void render(double dt) {
-            graphics.clearRect(0, 0, width, height);
-            for (Boid boid : boids) {
-                boid.draw(graphics);
+            graphics.setTransform(1, 0, 0, 1, 0, 0);
+            graphics.clearRect(0, 0, camera.getViewportWidth(), camera.getViewportHeight());
+
+            // Only boids in grid cells overlapping the view are drawn
+            Rectangle2D view = camera.getView();
+            visible.clear();
+            flock.collectInside(view.getMinX() - CULL_MARGIN, view.getMinY() - CULL_MARGIN,
+                    view.getMaxX() + CULL_MARGIN, view.getMaxY() + CULL_MARGIN, visible);
+
+            // Cheap rendering also falls back to the density view sooner
+            double threshold = loadLevel.includes(LoadGovernor.Level.CHEAP_RENDER) ? densityThreshold / 4
+                    : densityThreshold;
+            boolean dense = visible.size() > threshold * camera.getViewportWidth() * camera.getViewportHeight();
+            if (dense)
+                density.render(graphics, visible, view, flock.getSpecies().get(0).getFill());
+
+            camera.apply(graphics, view);
+            graphics.setStroke(Color.GRAY);
+            graphics.strokeRect(0, 0, width, height);
+            graphics.setFill(Color.DIMGRAY);
+            for (Obstacle obstacle : flock.getObstacles().getObstacles())
+                obstacle.draw(graphics);
+            if (!dense && loadLevel.includes(LoadGovernor.Level.CHEAP_RENDER)) {
+                for (Boid boid : visible) {
+                    boid.drawDot(graphics);
+                }
+            } else if (!dense) {
+                for (Boid boid : visible) {
+                    boid.draw(graphics);
+                }
             }
+            int lastCapHits = flock.getLastCapHits();
+            long totalCapHits = flock.getTotalCapHits();
+            int effectiveStagger = flock.getStaggerInterval();
+            String load = String.format("%s (%.1f ms)", getLoadLevel(), getAverageTickCost());
+            FlockMetrics metrics = flock.getAnalytics().getLatest();
+            String summary = String.format("P %.2f  L %+.2f  C %d  NN %.1f", metrics.getPolarization(),
+                    metrics.getAngularMomentum(), metrics.getClusters(), metrics.getMeanNearestNeighbor());
+            Platform.runLater(() -> {
+                cap_hits_out.setText(lastCapHits + " / " + totalCapHits);
+                stagger_status_out.setText("K = " + effectiveStagger);
+                load_level_out.setText(load);
+                render_mode_out.setText(dense ? "Density" : "Shapes");
+                metrics_out.setText(summary);
+            });
         }
     }
 
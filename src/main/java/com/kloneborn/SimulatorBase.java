@@ -1,5 +1,18 @@
 package com.kloneborn;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import javafx.application.Platform;
 import javafx.beans.binding.Bindings;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.DoubleProperty;
@@ -54,6 +67,17 @@ import javafx.beans.property.SimpleDoubleProperty;
  * <li>Override the {@code update} method to handle game logic and state
  * updates.</li>
  * <li>Override the {@code render} method to handle rendering.</li>
+ * <li>Override the {@code onLoadLevelChanged} method to apply cheaper
+ * simulation or rendering when the {@link LoadGovernor} asks for it.</li>
+ * <li>Override the {@code onFastForward} methods to report the progress of a
+ * {@link #fastForward(long, long)} and to switch the update to parallel work
+ * while it runs.</li>
+ * <li>Use {@link #post(Runnable)} to change simulation state from other
+ * threads, such as the JavaFX thread, instead of touching it directly.</li>
+ * <li>Call {@link #registerMBean(String)} to expose the loop statistics and
+ * controls over JMX as a {@link SimulatorMXBean}, and
+ * {@link #registerMBean(Object, String, String)} for MBeans of the simulated
+ * state. They are unregistered when the simulation stops.</li>
  * </ul>
  * </p>
  *
@@ -63,6 +87,11 @@ import javafx.beans.property.SimpleDoubleProperty;
 public abstract class SimulatorBase {
     private static final int DEFAULT_FPS = 60;
     private static final int DEFAULT_UPS = 60;
+    // How often a fast forward reports its progress
+    private static final long FAST_FORWARD_REPORT_NANOS = 100_000_000L;
+    // Update times kept for percentiles
+    private static final int TICK_HISTORY = 1024;
+    private static final long STATS_INTERVAL_NANOS = 1_000_000_000L;
     private final BooleanProperty runningProperty = new SimpleBooleanProperty(this, "running", true);
     private final BooleanProperty pausedProperty = new SimpleBooleanProperty(this, "paused", false);
     private final DoubleProperty framesPerSecondProperty = new SimpleDoubleProperty(this, "frames-per-second",
@@ -73,9 +102,36 @@ public abstract class SimulatorBase {
     private DoubleProperty timePerUpdateProperty = new SimpleDoubleProperty(this, "time-per-update",
             1000 / DEFAULT_UPS);
     private final Thread simulationLoopThread;
+    private final LoadGovernor governor = new LoadGovernor();
+    // Fast forward requested by another thread, picked up by the loop
+    private final AtomicReference<long[]> fastForwardRequest = new AtomicReference<>();
+    private volatile boolean fastForwarding;
+    private volatile boolean fastForwardCancelled;
+    private final double[] tickTimes = new double[TICK_HISTORY];
+    private long tickCount;
+    private volatile double actualUpdatesPerSecond;
+    private volatile double actualFramesPerSecond;
+    private volatile long allocationRate = -1;
+    // MBeans to unregister when the simulation stops
+    private final List<ObjectName> mbeanNames = new ArrayList<>();
+    // Commands from other threads, run by the loop before the next update
+    private final ConcurrentLinkedQueue<Runnable> commands = new ConcurrentLinkedQueue<>();
+    // Mirrors of the running and paused properties the loop thread can safely read
+    private volatile boolean active = true;
+    private volatile boolean suspended;
+    // Rates the loop paces itself by, only touched on the simulation thread
+    private double targetUpdatesPerSecond = DEFAULT_UPS;
+    private double targetFramesPerSecond = DEFAULT_FPS;
 
     public SimulatorBase() {
         this.simulationLoopThread = new Thread(new SimulationGameLoop());
+        runningProperty.addListener((obv, old, nvw) -> active = nvw);
+        pausedProperty.addListener((obv, old, nvw) -> suspended = nvw);
+        // Rate changes reach the loop as commands, like any other state change
+        updatesPerSecondProperty.addListener(
+                (obv, old, nvw) -> post(() -> targetUpdatesPerSecond = nvw.doubleValue()));
+        framesPerSecondProperty.addListener(
+                (obv, old, nvw) -> post(() -> targetFramesPerSecond = nvw.doubleValue()));
         timePerFrameProperty.bind(Bindings.createDoubleBinding(
                 () -> 1000 / framesPerSecondProperty.get(),
                 framesPerSecondProperty));
@@ -88,6 +144,89 @@ public abstract class SimulatorBase {
 
     protected abstract void render(double dt);
 
+    /**
+     * Called on the simulation thread whenever the load governor moves to a
+     * different level. {@link LoadGovernor.Level#DROP_FRAMES} is handled by the
+     * loop itself; subclasses apply the remaining degradations.
+     *
+     * @param level The new degradation level.
+     */
+    protected void onLoadLevelChanged(LoadGovernor.Level level) {
+    }
+
+    /**
+     * Called on the simulation thread before the first tick of a fast forward.
+     */
+    protected void onFastForwardStarted() {
+    }
+
+    /**
+     * Called on the simulation thread about every 100 ms while fast forwarding.
+     *
+     * @param ticks          Ticks run so far.
+     * @param ticksPerSecond Ticks run per second of wall clock time so far.
+     */
+    protected void onFastForwardProgress(long ticks, double ticksPerSecond) {
+    }
+
+    /**
+     * Called on the simulation thread once a fast forward has finished or was
+     * cancelled, before paced updates resume.
+     *
+     * @param ticks          Ticks run in total.
+     * @param ticksPerSecond Ticks run per second of wall clock time.
+     */
+    protected void onFastForwardFinished(long ticks, double ticksPerSecond) {
+    }
+
+    /**
+     * Run updates back to back without rendering until {@code ticks} updates have
+     * run or {@code millis} milliseconds have passed, whichever comes first, then
+     * resume paced updates. Every update still advances the simulation by one
+     * {@link #getTimePerUpdate() time per update}. The load governor is left
+     * alone while fast forwarding. A fast forward requested while paused waits
+     * for {@link #resume()}, and pausing ends a running one.
+     *
+     * @param ticks  Maximum number of updates, {@code 0} for no limit.
+     * @param millis Maximum wall clock time, {@code 0} for no limit.
+     */
+    public void fastForward(long ticks, long millis) {
+        if (ticks <= 0 && millis <= 0)
+            throw new IllegalArgumentException("A fast forward needs a tick limit or a time limit");
+        fastForwardCancelled = false;
+        fastForwardRequest.set(new long[] { ticks <= 0 ? Long.MAX_VALUE : ticks,
+                millis <= 0 ? Long.MAX_VALUE : millis * 1_000_000L });
+    }
+
+    /**
+     * Stop a running or requested fast forward after the current update.
+     */
+    public void cancelFastForward() {
+        fastForwardRequest.set(null);
+        fastForwardCancelled = true;
+    }
+
+    /**
+     * Get whether the loop is currently fast forwarding.
+     *
+     * @return {@code true} if fast forwarding, {@code false} otherwise.
+     */
+    public boolean isFastForwarding() {
+        return fastForwarding;
+    }
+
+    /**
+     * Queue {@code command} to run on the simulation thread before the next
+     * update. Safe to call from any thread and never blocks; commands run in the
+     * order they were posted, all of them at the same tick boundary. Commands are
+     * also run while the loop is paused.
+     *
+     * @param command The state change to make.
+     */
+    public void post(Runnable command) {
+        commands.add(command);
+    }
+
     /**
      * Start the simulation loop.
      */
@@ -100,18 +239,124 @@ public abstract class SimulatorBase {
     }
 
     /**
-     * Pause the simulation loop.
+     * Pause the simulation loop. Nothing is updated or rendered until
+     * {@link #resume()}.
      */
     public void pause() {
         setPaused(true);
     }
 
+    /**
+     * Resume a paused simulation loop.
+     */
+    public void resume() {
+        setPaused(false);
+    }
+
     /**
      * Stop the simulation loop.
      */
     public void stop() {
         setRunning(false);
         setPaused(false);
+        unregisterMBeans();
+    }
+
+    /**
+     * Register a {@link SimulatorMXBean} for this simulation with the platform
+     * MBean server, replacing one registered under the same name.
+     *
+     * @param name Value of the {@code name} key of the object name.
+     */
+    public void registerMBean(String name) {
+        registerMBean(new Monitor(), "Simulator", name);
+    }
+
+    /**
+     * Register {@code mbean} as {@code com.kloneborn:type=<type>,name=<name>},
+     * replacing one registered under the same name, until the simulation
+     * stops.
+     */
+    public synchronized void registerMBean(Object mbean, String type, String name) {
+        ObjectName objectName = register(mbean, type, name);
+        if (objectName != null)
+            mbeanNames.add(objectName);
+    }
+
+    private synchronized void unregisterMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName objectName : mbeanNames) {
+            try {
+                server.unregisterMBean(objectName);
+            } catch (JMException e) {
+                e.printStackTrace();
+            }
+        }
+        mbeanNames.clear();
+    }
+
+    /**
+     * @return The object name, or {@code null} if registration failed.
+     */
+    private static ObjectName register(Object mbean, String type, String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("com.kloneborn:type=" + type + ",name=" + ObjectName.quote(name));
+            if (server.isRegistered(objectName))
+                server.unregisterMBean(objectName);
+            server.registerMBean(mbean, objectName);
+            return objectName;
+        } catch (JMException e) {
+            // Monitoring is optional, the simulation runs without it
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Get the number of updates run over the last second.
+     *
+     * @return The measured updates per second.
+     */
+    public double getActualUpdatesPerSecond() {
+        return actualUpdatesPerSecond;
+    }
+
+    /**
+     * Get the number of frames rendered over the last second.
+     *
+     * @return The measured frames per second.
+     */
+    public double getActualFramesPerSecond() {
+        return actualFramesPerSecond;
+    }
+
+    /**
+     * Get a percentile of the time taken by recent updates, rendering excluded.
+     *
+     * @param percentile Between {@code 0} and {@code 100}.
+     * @return The update time in milliseconds, {@code 0} before the first update.
+     */
+    public double getTickTimePercentile(double percentile) {
+        double[] recent;
+        synchronized (tickTimes) {
+            recent = Arrays.copyOf(tickTimes, (int) Math.min(tickCount, TICK_HISTORY));
+        }
+        if (recent.length == 0)
+            return 0;
+        Arrays.sort(recent);
+        int index = (int) Math.ceil(percentile / 100.0 * recent.length) - 1;
+        return recent[Math.max(0, Math.min(recent.length - 1, index))];
+    }
+
+    /**
+     * Get the rate at which the simulation thread allocates memory.
+     *
+     * @return Bytes per second over the last second, {@code -1} if the JVM does
+     *         not support measuring it.
+     */
+    public long getAllocationRate() {
+        return allocationRate;
     }
 
     /**
@@ -164,9 +409,8 @@ public abstract class SimulatorBase {
      *
      * @param fps The new frames per second.
      */
-    public void setFramesPerSecond(int fps) {
+    public void setFramesPerSecond(double fps) {
         framesPerSecondProperty.set(fps);
-        timePerFrameProperty.set(1000.0 / fps);
     }
 
     /**
@@ -183,9 +427,8 @@ public abstract class SimulatorBase {
      *
      * @param ups The new updates per second.
      */
-    public void setUpdatesPerSecond(int ups) {
+    public void setUpdatesPerSecond(double ups) {
         updatesPerSecondProperty.set(ups);
-        timePerUpdateProperty.set(1000.0 / ups);
     }
 
     /**
@@ -224,6 +467,45 @@ public abstract class SimulatorBase {
         timePerUpdateProperty.set(timePerUpdate);
     }
 
+    /**
+     * Get the degradation level currently applied by the load governor.
+     *
+     * @return The current level.
+     */
+    public LoadGovernor.Level getLoadLevel() {
+        return governor.getLevel();
+    }
+
+    /**
+     * Get the smoothed cost of a tick, update plus the rendering done since the
+     * previous update.
+     *
+     * @return The tick cost in milliseconds.
+     */
+    public double getAverageTickCost() {
+        return governor.getAverageCost();
+    }
+
+    /**
+     * Get whether the load governor may degrade the simulation.
+     *
+     * @return {@code true} if governed, {@code false} otherwise.
+     */
+    public boolean isGoverned() {
+        return governor.isEnabled();
+    }
+
+    /**
+     * Allow or stop the load governor from degrading the simulation. Turning it
+     * off restores {@link LoadGovernor.Level#NORMAL} right away.
+     *
+     * @param governed The new value for the governed flag.
+     */
+    public void setGoverned(boolean governed) {
+        if (governor.setEnabled(governed))
+            onLoadLevelChanged(governor.getLevel());
+    }
+
     public DoubleProperty framesPerSecondProperty() {
         return framesPerSecondProperty;
     }
@@ -236,13 +518,55 @@ public abstract class SimulatorBase {
         public void run() {
             long lastUpdateTime = System.nanoTime();
             long lastRenderTime = System.nanoTime();
-            double nsPerUpdate = 1_000_000_000.0 / updatesPerSecondProperty.get();
-            double nsPerRender = 1_000_000_000.0 / framesPerSecondProperty.get();
             double deltaUpdate = 0;
             double deltaRender = 0;
+            double renderCost = 0;
+            long frames = 0;
+            long statsStart = System.nanoTime();
+            long statsUpdates = 0;
+            long statsFrames = 0;
+            long statsAllocated = allocatedBytes();
+
+            while (active) {
+                long[] request = suspended ? null : fastForwardRequest.getAndSet(null);
+                if (request != null) {
+                    fastForward(request[0], request[1]);
+                    // Resume pacing from now rather than catching up on the time spent
+                    lastUpdateTime = System.nanoTime();
+                    lastRenderTime = lastUpdateTime;
+                    deltaUpdate = 0;
+                    deltaRender = 1;
+                    renderCost = 0;
+                }
 
-            while (isRunning()) {
                 long now = System.nanoTime();
+                if (now - statsStart >= STATS_INTERVAL_NANOS) {
+                    double seconds = (now - statsStart) / 1e9;
+                    actualUpdatesPerSecond = statsUpdates / seconds;
+                    actualFramesPerSecond = statsFrames / seconds;
+                    long allocated = allocatedBytes();
+                    allocationRate = allocated < 0 ? -1 : (long) ((allocated - statsAllocated) / seconds);
+                    statsAllocated = allocated;
+                    statsStart = now;
+                    statsUpdates = 0;
+                    statsFrames = 0;
+                }
+
+                if (suspended) {
+                    runCommands();
+                    // Pick up from now when resumed instead of catching up
+                    lastUpdateTime = now;
+                    lastRenderTime = now;
+                    deltaUpdate = 0;
+                    deltaRender = 0;
+                    sleep(10);
+                    continue;
+                }
+
+                // Pick up rate changes before pacing by them
+                runCommands();
+                double nsPerUpdate = 1_000_000_000.0 / targetUpdatesPerSecond;
+                double nsPerRender = 1_000_000_000.0 / targetFramesPerSecond;
                 long updateTimeDiff = now - lastUpdateTime;
                 long renderTimeDiff = now - lastRenderTime;
 
@@ -253,23 +577,220 @@ public abstract class SimulatorBase {
                 lastRenderTime = now;
 
                 while (deltaUpdate >= 1) {
-                    update(timePerUpdateProperty.get());
+                    runCommands();
+                    long start = System.nanoTime();
+                    update(1000 / targetUpdatesPerSecond);
+                    double updateCost = (System.nanoTime() - start) / 1_000_000.0;
+                    recordTickTime(updateCost);
+                    statsUpdates++;
+                    // Rendering shares the thread, so it counts against the update budget too
+                    double cost = updateCost + renderCost;
+                    renderCost = 0;
+                    if (governor.record(cost, 1000 / targetUpdatesPerSecond))
+                        onLoadLevelChanged(governor.getLevel());
                     deltaUpdate -= 1;
                 }
 
-                while (deltaRender >= 1) {
-                    render(timePerFrameProperty.get());
-                    deltaRender -= 1;
+                if (governor.getLevel().includes(LoadGovernor.Level.DROP_FRAMES)) {
+                    // Collapse any backlog of frames into one and only draw every other frame
+                    if (deltaRender >= 1) {
+                        deltaRender = 0;
+                        if (frames++ % 2 == 0) {
+                            renderCost += timedRender();
+                            statsFrames++;
+                        }
+                    }
+                } else {
+                    while (deltaRender >= 1) {
+                        renderCost += timedRender();
+                        statsFrames++;
+                        deltaRender -= 1;
+                    }
                 }
 
                 // Optional: Add a sleep to control the loop speed
                 // This helps in preventing high CPU usage
-                try {
-                    Thread.sleep(1);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+                sleep(1);
+            }
+        }
+
+        private void sleep(long millis) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private void runCommands() {
+            for (Runnable command; (command = commands.poll()) != null;)
+                command.run();
+        }
+
+        private void recordTickTime(double millis) {
+            synchronized (tickTimes) {
+                tickTimes[(int) (tickCount++ % TICK_HISTORY)] = millis;
+            }
+        }
+
+        /**
+         * @return Bytes allocated by this thread so far, {@code -1} if unknown.
+         */
+        private long allocatedBytes() {
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (threads instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) threads;
+                if (sun.isThreadAllocatedMemorySupported() && sun.isThreadAllocatedMemoryEnabled())
+                    return sun.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+            return -1;
+        }
+
+        private void fastForward(long maxTicks, long maxNanos) {
+            fastForwarding = true;
+            onFastForwardStarted();
+            long start = System.nanoTime();
+            long lastReport = start;
+            long ticks = 0;
+            while (ticks < maxTicks && active && !suspended && !fastForwardCancelled) {
+                runCommands();
+                update(1000 / targetUpdatesPerSecond);
+                ticks++;
+                long now = System.nanoTime();
+                if (now - start >= maxNanos)
+                    break;
+                if (now - lastReport >= FAST_FORWARD_REPORT_NANOS) {
+                    lastReport = now;
+                    onFastForwardProgress(ticks, ticks * 1e9 / (now - start));
                 }
             }
+            fastForwarding = false;
+            onFastForwardFinished(ticks, ticks * 1e9 / Math.max(1, System.nanoTime() - start));
+        }
+
+        private double timedRender() {
+            long start = System.nanoTime();
+            render(1000 / targetFramesPerSecond);
+            return (System.nanoTime() - start) / 1_000_000.0;
+        }
+    }
+
+    /**
+     * JMX view of the loop. Rate and pause changes go through the JavaFX thread
+     * because those properties are usually bound to controls; other changes are
+     * posted to the simulation thread.
+     */
+    private class Monitor implements SimulatorMXBean {
+
+        @Override
+        public double getTargetUpdatesPerSecond() {
+            return getUpdatesPerSecond();
+        }
+
+        @Override
+        public void setTargetUpdatesPerSecond(double ups) {
+            if (ups <= 0)
+                throw new IllegalArgumentException("Updates per second must be positive, got " + ups);
+            runOnFxThread(() -> setUpdatesPerSecond(ups));
+        }
+
+        @Override
+        public double getActualUpdatesPerSecond() {
+            return SimulatorBase.this.getActualUpdatesPerSecond();
+        }
+
+        @Override
+        public double getTargetFramesPerSecond() {
+            return getFramesPerSecond();
+        }
+
+        @Override
+        public void setTargetFramesPerSecond(double fps) {
+            if (fps <= 0)
+                throw new IllegalArgumentException("Frames per second must be positive, got " + fps);
+            runOnFxThread(() -> setFramesPerSecond(fps));
+        }
+
+        @Override
+        public double getActualFramesPerSecond() {
+            return SimulatorBase.this.getActualFramesPerSecond();
+        }
+
+        @Override
+        public double getTickTimeP50() {
+            return getTickTimePercentile(50);
+        }
+
+        @Override
+        public double getTickTimeP95() {
+            return getTickTimePercentile(95);
+        }
+
+        @Override
+        public double getTickTimeP99() {
+            return getTickTimePercentile(99);
+        }
+
+        @Override
+        public double getTickTimeMax() {
+            return getTickTimePercentile(100);
+        }
+
+        @Override
+        public long getAllocationRate() {
+            return SimulatorBase.this.getAllocationRate();
+        }
+
+        @Override
+        public String getLoadLevel() {
+            return SimulatorBase.this.getLoadLevel().name();
+        }
+
+        @Override
+        public double getAverageTickCost() {
+            return SimulatorBase.this.getAverageTickCost();
+        }
+
+        @Override
+        public boolean isGoverned() {
+            return SimulatorBase.this.isGoverned();
+        }
+
+        @Override
+        public void setGoverned(boolean governed) {
+            post(() -> SimulatorBase.this.setGoverned(governed));
+        }
+
+        @Override
+        public boolean isPaused() {
+            return SimulatorBase.this.isPaused();
+        }
+
+        @Override
+        public boolean isFastForwarding() {
+            return SimulatorBase.this.isFastForwarding();
+        }
+
+        @Override
+        public void pause() {
+            runOnFxThread(SimulatorBase.this::pause);
+        }
+
+        @Override
+        public void resume() {
+            runOnFxThread(SimulatorBase.this::resume);
+        }
+
+        /**
+         * Run {@code action} on the JavaFX thread, or right here when there is no
+         * JavaFX toolkit, as in a headless run, and so no thread to race with.
+         */
+        private void runOnFxThread(Runnable action) {
+            try {
+                Platform.runLater(action);
+            } catch (IllegalStateException e) {
+                action.run();
+            }
         }
     }
 }
\ No newline at end of file
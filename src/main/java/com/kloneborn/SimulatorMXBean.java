@@ -0,0 +1,50 @@
+package com.kloneborn;
+
+/**
+ * Management interface of a running {@link SimulatorBase}, registered under
+ * {@code com.kloneborn:type=Simulator}. Times are in milliseconds.
+ */
+public interface SimulatorMXBean {
+
+    double getTargetUpdatesPerSecond();
+
+    void setTargetUpdatesPerSecond(double ups);
+
+    double getActualUpdatesPerSecond();
+
+    double getTargetFramesPerSecond();
+
+    void setTargetFramesPerSecond(double fps);
+
+    double getActualFramesPerSecond();
+
+    double getTickTimeP50();
+
+    double getTickTimeP95();
+
+    double getTickTimeP99();
+
+    double getTickTimeMax();
+
+    /**
+     * @return Bytes allocated per second by the simulation thread, {@code -1} if
+     *         the JVM cannot measure it.
+     */
+    long getAllocationRate();
+
+    String getLoadLevel();
+
+    double getAverageTickCost();
+
+    boolean isGoverned();
+
+    void setGoverned(boolean governed);
+
+    boolean isPaused();
+
+    boolean isFastForwarding();
+
+    void pause();
+
+    void resume();
+}
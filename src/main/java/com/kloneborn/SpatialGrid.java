@@ -0,0 +1,160 @@
+package com.kloneborn;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Uniform bucket grid over the world used to find boids near a point without
+ * scanning the whole flock.
+ * <p>
+ * Cells are numbered along a Z-order (Morton) curve rather than row by row, so
+ * the counting sort performed by {@link #rebuild(List)} leaves {@link #items}
+ * grouped by cell in an order where cells that are close in space are also
+ * close in memory. {@link Flock} reuses that order to periodically reorder the
+ * flock itself.
+ * </p>
+ */
+public class SpatialGrid {
+    private final double cellSize;
+    private final int cols;
+    private final int rows;
+    // Z-order rank of every (col, row) cell, indexed by row * cols + col
+    private final int[] rank;
+    // cellStart[r]..cellStart[r + 1] is the slice of items that lies in the cell ranked r
+    private final int[] cellStart;
+    private final int[] cursor;
+    private Boid[] items = new Boid[0];
+    private int[] itemCell = new int[0];
+    private int size;
+
+    public SpatialGrid(double width, double height, double cellSize) {
+        this.cellSize = cellSize;
+        this.cols = Math.max(1, (int) Math.ceil(width / cellSize));
+        this.rows = Math.max(1, (int) Math.ceil(height / cellSize));
+        this.rank = zOrderRanks(cols, rows);
+        this.cellStart = new int[cols * rows + 1];
+        this.cursor = new int[cols * rows];
+    }
+
+    /**
+     * Re-bucket every boid by its current location using a counting sort.
+     *
+     * @param boids The boids to index.
+     */
+    public void rebuild(List<Boid> boids) {
+        int previous = size;
+        size = boids.size();
+        if (items.length < size) {
+            // Grow by half again so a population growing in steps does not reallocate every step
+            int capacity = Math.max(size, items.length + items.length / 2);
+            items = new Boid[capacity];
+            itemCell = new int[capacity];
+        } else if (size < previous) {
+            // Drop references to boids that have left
+            Arrays.fill(items, size, previous, null);
+        }
+        Arrays.fill(cellStart, 0);
+        for (int i = 0; i < size; i++) {
+            Boid boid = boids.get(i);
+            int cell = rank[cellIndex(col(boid.location.getX()), row(boid.location.getY()))];
+            itemCell[i] = cell;
+            cellStart[cell + 1]++;
+        }
+        for (int c = 0; c < cellStart.length - 1; c++)
+            cellStart[c + 1] += cellStart[c];
+        // Scatter in list order through a cursor per cell so that the sort is stable
+        System.arraycopy(cellStart, 0, cursor, 0, cursor.length);
+        for (int i = 0; i < size; i++)
+            items[cursor[itemCell[i]]++] = boids.get(i);
+    }
+
+    /**
+     * Add every indexed boid whose cell overlaps the square of the given radius
+     * around {@code (x, y)} to {@code out}. Callers still need to check the
+     * actual distance.
+     */
+    public void collect(double x, double y, double radius, List<Boid> out) {
+        collect(x - radius, y - radius, x + radius, y + radius, out);
+    }
+
+    /**
+     * Add every indexed boid whose cell overlaps the given rectangle to
+     * {@code out}.
+     */
+    public void collect(double minX, double minY, double maxX, double maxY, List<Boid> out) {
+        int c0 = col(minX), c1 = col(maxX);
+        int r0 = row(minY), r1 = row(maxY);
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                int cell = rank[cellIndex(c, r)];
+                for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++)
+                    out.add(items[i]);
+            }
+        }
+    }
+
+    /**
+     * Write the indexed boids in Z-order into {@code boids}, starting at
+     * {@code from}. Must be called right after {@link #rebuild(List)}.
+     *
+     * @return The index after the last boid written.
+     */
+    public int copyOrderTo(List<Boid> boids, int from) {
+        for (int i = 0; i < size; i++)
+            boids.set(from + i, items[i]);
+        return from + size;
+    }
+
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    private int col(double x) {
+        return clamp((int) Math.floor(x / cellSize), cols);
+    }
+
+    private int row(double y) {
+        return clamp((int) Math.floor(y / cellSize), rows);
+    }
+
+    private int cellIndex(int col, int row) {
+        return row * cols + col;
+    }
+
+    private static int clamp(int value, int count) {
+        return value < 0 ? 0 : value >= count ? count - 1 : value;
+    }
+
+    /**
+     * Rank every cell of a {@code cols x rows} grid by its Morton code, giving a
+     * dense Z-order numbering even when the grid is not a power of two.
+     */
+    private static int[] zOrderRanks(int cols, int rows) {
+        int count = cols * rows;
+        long[] keyed = new long[count];
+        for (int r = 0; r < rows; r++)
+            for (int c = 0; c < cols; c++)
+                keyed[r * cols + c] = ((morton(c, r) & 0xFFFFFFFFL) << 32) | (r * cols + c);
+        Arrays.sort(keyed);
+        int[] rank = new int[count];
+        for (int i = 0; i < count; i++)
+            rank[(int) keyed[i]] = i;
+        return rank;
+    }
+
+    /**
+     * Interleave the low 16 bits of {@code x} and {@code y}.
+     */
+    static int morton(int x, int y) {
+        return spread(x) | (spread(y) << 1);
+    }
+
+    private static int spread(int v) {
+        v &= 0xFFFF;
+        v = (v | (v << 8)) & 0x00FF00FF;
+        v = (v | (v << 4)) & 0x0F0F0F0F;
+        v = (v | (v << 2)) & 0x33333333;
+        v = (v | (v << 1)) & 0x55555555;
+        return v;
+    }
+}
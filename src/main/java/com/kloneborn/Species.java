@@ -0,0 +1,174 @@
+package com.kloneborn;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ResourceBundle;
+
+import javafx.beans.property.DoubleProperty;
+import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.SimpleDoubleProperty;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.scene.paint.Color;
+
+/**
+ * A group of boids sharing one set of behaviour weights and a colour. How
+ * species react to each other is described separately by an
+ * {@link InteractionMatrix}.
+ */
+public class Species {
+    // Species of boids that were never assigned one
+    public static final Species DEFAULT = new Species(0, "flock");
+
+    private final int index;
+    private final String name;
+    // Multipliers on top of the flocking forces of every boid of this species
+    private final DoubleProperty alignmentWeightProperty = new SimpleDoubleProperty(1.0);
+    private final DoubleProperty cohesionWeightProperty = new SimpleDoubleProperty(1.0);
+    private final DoubleProperty separationWeightProperty = new SimpleDoubleProperty(1.0);
+    // Relative share of newly spawned boids
+    private final DoubleProperty shareProperty = new SimpleDoubleProperty(1.0);
+    private final ObjectProperty<Color> fillProperty = new SimpleObjectProperty<>(Color.rgb(175, 175, 175));
+
+    public Species(int index, String name) {
+        this.index = index;
+        this.name = name;
+    }
+
+    /**
+     * Read the species listed under {@code default.species.names} together with
+     * their {@code default.species.<name>.*} settings.
+     *
+     * @param bundle The bundle to read from.
+     * @return The species, indexed in the order they are listed.
+     */
+    public static List<Species> load(ResourceBundle bundle) {
+        List<Species> species = new ArrayList<>();
+        for (String name : bundle.getString("default.species.names").split(",")) {
+            name = name.trim();
+            String prefix = "default.species." + name + ".";
+            Species s = new Species(species.size(), name);
+            s.setAlignmentWeight(Double.parseDouble(bundle.getString(prefix + "alignment")));
+            s.setCohesionWeight(Double.parseDouble(bundle.getString(prefix + "cohesion")));
+            s.setSeparationWeight(Double.parseDouble(bundle.getString(prefix + "separation")));
+            s.setShare(Double.parseDouble(bundle.getString(prefix + "share")));
+            s.setFill(Color.web(bundle.getString(prefix + "fill")));
+            species.add(s);
+        }
+        return species;
+    }
+
+    /**
+     * Assign species to {@code boids} in proportion to their shares. Boids are
+     * handed out in runs, so the assignment is the same for the same list.
+     */
+    public static void assign(List<Species> species, List<Boid> boids) {
+        double total = 0;
+        for (Species s : species)
+            total += s.getShare();
+        int start = 0;
+        double cumulative = 0;
+        for (Species s : species) {
+            cumulative += s.getShare();
+            int end = (int) Math.round(boids.size() * cumulative / total);
+            for (int i = start; i < end; i++)
+                boids.get(i).setSpecies(s);
+            start = end;
+        }
+    }
+
+    /**
+     * Pick one of {@code species} in proportion to their shares.
+     *
+     * @param uniform A random number in {@code [0, 1)}.
+     */
+    public static Species pick(List<Species> species, double uniform) {
+        double total = 0;
+        for (Species s : species)
+            total += s.getShare();
+        double target = uniform * total;
+        for (Species s : species) {
+            target -= s.getShare();
+            if (target < 0)
+                return s;
+        }
+        return species.get(species.size() - 1);
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // Getter and setter for alignmentWeightProperty
+    public DoubleProperty alignmentWeightProperty() {
+        return alignmentWeightProperty;
+    }
+
+    public double getAlignmentWeight() {
+        return alignmentWeightProperty.get();
+    }
+
+    public void setAlignmentWeight(double alignmentWeight) {
+        alignmentWeightProperty.set(alignmentWeight);
+    }
+
+    // Getter and setter for cohesionWeightProperty
+    public DoubleProperty cohesionWeightProperty() {
+        return cohesionWeightProperty;
+    }
+
+    public double getCohesionWeight() {
+        return cohesionWeightProperty.get();
+    }
+
+    public void setCohesionWeight(double cohesionWeight) {
+        cohesionWeightProperty.set(cohesionWeight);
+    }
+
+    // Getter and setter for separationWeightProperty
+    public DoubleProperty separationWeightProperty() {
+        return separationWeightProperty;
+    }
+
+    public double getSeparationWeight() {
+        return separationWeightProperty.get();
+    }
+
+    public void setSeparationWeight(double separationWeight) {
+        separationWeightProperty.set(separationWeight);
+    }
+
+    // Getter and setter for shareProperty
+    public DoubleProperty shareProperty() {
+        return shareProperty;
+    }
+
+    public double getShare() {
+        return shareProperty.get();
+    }
+
+    public void setShare(double share) {
+        shareProperty.set(share);
+    }
+
+    // Getter and setter for fillProperty
+    public ObjectProperty<Color> fillProperty() {
+        return fillProperty;
+    }
+
+    public Color getFill() {
+        return fillProperty.get();
+    }
+
+    public void setFill(Color fill) {
+        fillProperty.set(fill);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,224 @@
+package com.kloneborn;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.ResourceBundle;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javafx.geometry.Point2D;
+
+/**
+ * Headless batch runner that simulates many flock configurations concurrently
+ * and writes one CSV row of {@link FlockMetrics} per run as soon as it
+ * finishes.
+ * <p>
+ * <b>Usage:</b>
+ * {@code java -cp <classpath> com.kloneborn.SweepRunner <output.csv> [key=value ...]}
+ * </p>
+ * <p>
+ * The swept parameters are {@code alignment_force}, {@code cohesion_force},
+ * {@code seperation_force}, {@code max_speed} and {@code max_force}. Each takes
+ * a comma separated list of values, {@code 0.5,1.0,1.5}, or a range,
+ * {@code 0.5:1.5}. Parameters that are left out keep their slider default.
+ * Without {@code samples} every combination of the lists is run; with
+ * {@code samples=N}, N configurations are drawn at random, uniformly from
+ * ranges and lists alike. The remaining keys are:
+ * </p>
+ * <ul>
+ * <li>{@code boids}: boids per run, default 500.</li>
+ * <li>{@code ticks}: ticks per run, default 2000.</li>
+ * <li>{@code world}: side of the square world, default 600.</li>
+ * <li>{@code seeds}: runs per configuration with consecutive seeds, default
+ * 1.</li>
+ * <li>{@code seed}: first seed, default 1.</li>
+ * <li>{@code threads}: concurrent runs, default one per core.</li>
+ * <li>{@code cluster_radius}: see {@link FlockMetrics}, default
+ * {@link Boid#COHESION_RADIUS}.</li>
+ * </ul>
+ * <p>
+ * The seed fixes the starting positions and velocities and every random choice
+ * a boid makes while wandering and sampling its neighbours, so running a
+ * configuration again with the seed of its row reproduces the row's
+ * metrics.
+ * </p>
+ */
+public final class SweepRunner {
+    private static final String[] PARAMETERS = { "alignment_force", "cohesion_force", "seperation_force",
+            "max_speed", "max_force" };
+    private static final double START_SPEED = 2.0;
+
+    private SweepRunner() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 0) {
+            System.err.println("Usage: SweepRunner <output.csv> [key=value ...]");
+            System.exit(1);
+        }
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            int eq = args[i].indexOf('=');
+            if (eq < 0)
+                throw new IllegalArgumentException("Expected key=value but got " + args[i]);
+            options.put(args[i].substring(0, eq), args[i].substring(eq + 1));
+        }
+
+        ResourceBundle bundle = ResourceBundle.getBundle("com.kloneborn.system");
+        Map<String, String> specs = new LinkedHashMap<>();
+        for (String parameter : PARAMETERS)
+            specs.put(parameter, options.getOrDefault(parameter, bundle.getString("default.slider." + parameter)));
+        int samples = Integer.parseInt(options.getOrDefault("samples", "0"));
+        int seeds = Integer.parseInt(options.getOrDefault("seeds", "1"));
+        long firstSeed = Long.parseLong(options.getOrDefault("seed", "1"));
+        int threads = Integer.parseInt(
+                options.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+        List<Run> runs = new ArrayList<>();
+        for (double[] values : samples > 0 ? sample(specs, samples, firstSeed) : grid(specs))
+            for (int s = 0; s < seeds; s++)
+                runs.add(new Run(runs.size(), firstSeed + s, values,
+                        Integer.parseInt(options.getOrDefault("boids", "500")),
+                        Integer.parseInt(options.getOrDefault("ticks", "2000")),
+                        Double.parseDouble(options.getOrDefault("world", "600")),
+                        Double.parseDouble(options.getOrDefault("cluster_radius",
+                                String.valueOf(Boid.COHESION_RADIUS)))));
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CompletionService<String> completed = new ExecutorCompletionService<>(executor);
+        for (Run run : runs)
+            completed.submit(run::call);
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(args[0])))) {
+            out.println("run,seed," + String.join(",", PARAMETERS)
+                    + ",boids,ticks,polarization,clusters,mean_nn_distance,ticks_per_second");
+            out.flush();
+            for (int i = 0; i < runs.size(); i++) {
+                try {
+                    out.println(completed.take().get());
+                } catch (ExecutionException e) {
+                    // One broken configuration should not lose the rest of the night
+                    e.getCause().printStackTrace();
+                }
+                out.flush();
+                System.err.printf("%d/%d runs done%n", i + 1, runs.size());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Every combination of the listed values. Ranges cannot be enumerated.
+     */
+    private static List<double[]> grid(Map<String, String> specs) {
+        List<double[]> configurations = new ArrayList<>();
+        configurations.add(new double[specs.size()]);
+        int p = 0;
+        for (Map.Entry<String, String> spec : specs.entrySet()) {
+            if (spec.getValue().contains(":"))
+                throw new IllegalArgumentException(
+                        "Range given for " + spec.getKey() + "; ranges need samples=N to be drawn from");
+            List<double[]> next = new ArrayList<>();
+            for (double[] configuration : configurations) {
+                for (String value : spec.getValue().split(",")) {
+                    double[] copy = configuration.clone();
+                    copy[p] = Double.parseDouble(value.trim());
+                    next.add(copy);
+                }
+            }
+            configurations = next;
+            p++;
+        }
+        return configurations;
+    }
+
+    private static List<double[]> sample(Map<String, String> specs, int samples, long seed) {
+        Random random = new Random(seed);
+        List<double[]> configurations = new ArrayList<>();
+        for (int i = 0; i < samples; i++) {
+            double[] configuration = new double[specs.size()];
+            int p = 0;
+            for (String spec : specs.values()) {
+                if (spec.contains(":")) {
+                    String[] bounds = spec.split(":");
+                    double low = Double.parseDouble(bounds[0].trim());
+                    double high = Double.parseDouble(bounds[1].trim());
+                    configuration[p++] = low + random.nextDouble() * (high - low);
+                } else {
+                    String[] values = spec.split(",");
+                    configuration[p++] = Double.parseDouble(values[random.nextInt(values.length)].trim());
+                }
+            }
+            configurations.add(configuration);
+        }
+        return configurations;
+    }
+
+    /**
+     * One independent simulation.
+     */
+    private static class Run {
+        private final int index;
+        private final long seed;
+        private final double[] values;
+        private final int boids;
+        private final int ticks;
+        private final double world;
+        private final double clusterRadius;
+
+        Run(int index, long seed, double[] values, int boids, int ticks, double world, double clusterRadius) {
+            this.index = index;
+            this.seed = seed;
+            this.values = values;
+            this.boids = boids;
+            this.ticks = ticks;
+            this.world = world;
+            this.clusterRadius = clusterRadius;
+        }
+
+        /**
+         * @return The CSV row of this run.
+         */
+        String call() {
+            Flock flock = new Flock(world, world);
+            flock.setParameters(new FlockParameters(values[3], values[4], values[0], values[1], values[2], true, true,
+                    true));
+            Random random = new Random(seed);
+            SplittableRandom streams = new SplittableRandom(seed);
+            // Runs are built concurrently, so each takes its own block of ids
+            int firstId = Boid.reserveIds(boids);
+            for (int i = 0; i < boids; i++) {
+                Boid boid = new Boid(random.nextDouble() * world, random.nextDouble() * world, firstId + i);
+                double angle = random.nextDouble() * 2 * Math.PI;
+                boid.setVelocity(new Point2D(START_SPEED * Math.cos(angle), START_SPEED * Math.sin(angle)));
+                boid.setRandom(streams.split());
+                flock.getBoids().add(boid);
+            }
+
+            long start = System.nanoTime();
+            for (int t = 0; t < ticks; t++)
+                flock.update();
+            double ticksPerSecond = ticks * 1e9 / Math.max(1, System.nanoTime() - start);
+
+            FlockMetrics metrics = FlockMetrics.measure(flock.getBoids(), world, world, clusterRadius);
+            StringBuilder row = new StringBuilder().append(index).append(',').append(seed);
+            for (double value : values)
+                row.append(',').append(value);
+            return row.append(String.format(Locale.ROOT, ",%d,%d,%.6f,%d,%.4f,%.1f", boids, ticks,
+                    metrics.getPolarization(), metrics.getClusters(), metrics.getMeanNearestNeighbor(),
+                    ticksPerSecond)).toString();
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.kloneborn;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ResourceBundle;
+
+/**
+ * Runs a flock split across several {@link TileWorker} processes and merges
+ * their snapshots into one view of the world.
+ * <p>
+ * <b>Usage:</b>
+ * {@code java -cp <classpath> com.kloneborn.TileCoordinator [key=value ...]}
+ * or {@code java -p <modulepath> -m com.kloneborn/com.kloneborn.TileCoordinator [key=value ...]}
+ * starts {@code tiles} workers on this machine the same way and prints the
+ * merged population every snapshot. A worker that exits before connecting
+ * fails the run. The keys are:
+ * </p>
+ * <ul>
+ * <li>{@code tiles}: worker processes, default 4.</li>
+ * <li>{@code port}: port of the coordinator, default 47000. Local workers
+ * listen on the ports after it.</li>
+ * <li>{@code peers}: {@code host:port} of every worker in tile order, for
+ * workers on other machines. The coordinator then starts none and waits for
+ * them to connect; start each with the same keys plus its tile index and
+ * {@code coordinator=host:port}.</li>
+ * <li>{@code boids}: boids across all tiles, default 20000.</li>
+ * <li>{@code ticks}: default 1000.</li>
+ * <li>{@code world_width}, {@code world_height}: default 40 per square root of
+ * the boid count, square.</li>
+ * <li>{@code snapshot_interval}: ticks between snapshots, default 10.</li>
+ * <li>{@code frames}: directory to export every merged snapshot to as a PNG
+ * sequence through {@link FrameExporter}, with {@code width} and
+ * {@code height} in pixels, default 1920x1080.</li>
+ * <li>{@code seed}, {@code dt}, {@code substeps} and the flocking parameters
+ * of {@link SweepRunner} are passed on to the workers.</li>
+ * </ul>
+ */
+public final class TileCoordinator {
+    private static final String[] FORWARDED = { "boids", "ticks", "snapshot_interval", "seed", "dt", "substeps",
+            "max_speed", "max_force", "alignment_force", "cohesion_force", "seperation_force" };
+    // How often waiting for workers to connect checks that the local ones still run
+    private static final int ACCEPT_POLL_MILLIS = 1000;
+
+    private TileCoordinator() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0)
+                throw new IllegalArgumentException("Expected key=value but got " + arg);
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        int port = Integer.parseInt(options.getOrDefault("port", "47000"));
+        boolean local = !options.containsKey("peers");
+        int tiles = local ? Integer.parseInt(options.getOrDefault("tiles", "4"))
+                : options.get("peers").split(",").length;
+        int boids = Integer.parseInt(options.getOrDefault("boids", "20000"));
+        String side = String.valueOf(Math.ceil(Math.sqrt(boids) * 40));
+        double worldWidth = Double.parseDouble(options.getOrDefault("world_width", side));
+        double worldHeight = Double.parseDouble(options.getOrDefault("world_height", side));
+        if (local) {
+            List<String> peers = new ArrayList<>();
+            for (int i = 0; i < tiles; i++)
+                peers.add("127.0.0.1:" + (port + 1 + i));
+            options.put("peers", String.join(",", peers));
+        }
+
+        ResourceBundle bundle = ResourceBundle.getBundle("com.kloneborn.system");
+        List<Species> species = Species.load(bundle);
+        int[] colors = new int[species.size()];
+        for (Species s : species)
+            colors[s.getIndex()] = FrameExporter.toArgb(s.getFill()) | 0xFF000000;
+
+        List<Process> processes = new ArrayList<>();
+        TileProtocol.Link[] links = new TileProtocol.Link[tiles];
+        FrameExporter exporter = null;
+        boolean finished = false;
+        try (ServerSocket server = new ServerSocket(port)) {
+            if (local) {
+                for (int i = 0; i < tiles; i++) {
+                    List<String> command = workerCommand();
+                    command.addAll(List.of(String.valueOf(i), "peers=" + options.get("peers"),
+                            "coordinator=127.0.0.1:" + port, "world_width=" + worldWidth,
+                            "world_height=" + worldHeight));
+                    for (String key : FORWARDED)
+                        if (options.containsKey(key))
+                            command.add(key + "=" + options.get(key));
+                    processes.add(new ProcessBuilder(command).inheritIO().start());
+                }
+            }
+            server.setSoTimeout(ACCEPT_POLL_MILLIS);
+            for (int i = 0; i < tiles; i++) {
+                TileProtocol.Link link = new TileProtocol.Link(accept(server, processes));
+                int tile = link.receiveHello();
+                if (tile < 0 || tile >= tiles || links[tile] != null)
+                    throw new IOException("Unexpected tile " + tile + " connected");
+                links[tile] = link;
+            }
+            System.err.printf("%d tiles connected%n", tiles);
+
+            if (options.containsKey("frames"))
+                exporter = new FrameExporter(Paths.get(options.get("frames")),
+                        Integer.parseInt(options.getOrDefault("width", "1920")),
+                        Integer.parseInt(options.getOrDefault("height", "1080")), worldWidth, worldHeight,
+                        Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors() + 1);
+            merge(links, colors, exporter, boids);
+            finished = true;
+        } finally {
+            // Processes first, so a failing close below cannot leave them running
+            for (Process process : processes) {
+                // Workers of a failed run may wait for peers that will never come
+                if (!finished)
+                    process.destroy();
+                process.waitFor();
+            }
+            for (TileProtocol.Link link : links)
+                if (link != null)
+                    closeQuietly(link);
+            if (exporter != null)
+                exporter.close();
+        }
+    }
+
+    private static void closeQuietly(TileProtocol.Link link) {
+        try {
+            link.close();
+        } catch (IOException e) {
+            // Nothing is left to send or read on it
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return The command that starts a {@link TileWorker} from the class path
+     *         or module path this coordinator was started from.
+     */
+    private static List<String> workerCommand() {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        Module module = TileWorker.class.getModule();
+        String modulePath = System.getProperty("jdk.module.path");
+        if (module.isNamed() && modulePath != null) {
+            // Started with -m the class path is empty, so the worker has to be started as a module too
+            command.addAll(List.of("-p", modulePath, "-m", module.getName() + "/" + TileWorker.class.getName()));
+        } else {
+            command.addAll(List.of("-cp", System.getProperty("java.class.path"), TileWorker.class.getName()));
+        }
+        return command;
+    }
+
+    /**
+     * Wait for the next worker to connect, failing if one of the local
+     * {@code processes} exits first.
+     */
+    private static Socket accept(ServerSocket server, List<Process> processes) throws IOException {
+        while (true) {
+            try {
+                return server.accept();
+            } catch (SocketTimeoutException e) {
+                for (Process process : processes)
+                    if (!process.isAlive())
+                        throw new IOException("Tile worker " + processes.indexOf(process)
+                                + " exited with code " + process.exitValue() + " before the run started");
+            }
+        }
+    }
+
+    /**
+     * Read one snapshot from every tile per round until the tiles finish.
+     *
+     * @param boids Boids across all tiles, to size the merge buffers once.
+     */
+    private static void merge(TileProtocol.Link[] links, int[] colors, FrameExporter exporter, int boids)
+            throws IOException, InterruptedException {
+        int tiles = links.length;
+        int[] counts = new int[tiles];
+        float[] state = new float[FrameExporter.STRIDE * boids];
+        int[] color = new int[boids];
+        long start = System.nanoTime();
+        while (true) {
+            long tick = TileProtocol.END;
+            int total = 0;
+            for (int i = 0; i < tiles; i++) {
+                DataInputStream in = links[i].in;
+                long t = in.readLong();
+                if (t == TileProtocol.END) {
+                    if (i > 0)
+                        throw new IOException("Tile " + i + " ended before the others");
+                    // The other tiles end on the same tick
+                    for (int j = 1; j < tiles; j++)
+                        links[j].in.readLong();
+                    return;
+                }
+                if (i > 0 && t != tick)
+                    throw new IOException("Tile " + i + " sent tick " + t + " while tile 0 sent " + tick);
+                tick = t;
+                int n = in.readInt();
+                counts[i] = n;
+                if (total + n > color.length) {
+                    // Only if the tiles disagree with the boid count they were started with
+                    state = Arrays.copyOf(state, FrameExporter.STRIDE * (total + n));
+                    color = Arrays.copyOf(color, total + n);
+                }
+                for (int k = total; k < total + n; k++) {
+                    color[k] = colors[in.readByte()];
+                    int s = FrameExporter.STRIDE * k;
+                    state[s] = in.readFloat();
+                    state[s + 1] = in.readFloat();
+                    state[s + 2] = in.readFloat();
+                    state[s + 3] = in.readFloat();
+                    state[s + 4] = (float) Boid.RADIUS;
+                }
+                total += n;
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            StringBuilder line = new StringBuilder(String.format(Locale.ROOT, "tick %d: %d boids (", tick, total));
+            for (int i = 0; i < tiles; i++)
+                line.append(i > 0 ? " " : "").append(counts[i]);
+            System.err.println(line.append(String.format(Locale.ROOT, "), %.1f ticks/s", tick / seconds)));
+            // The exporter renders in the background, so it gets its own copy
+            if (exporter != null)
+                exporter.submit(new FrameExporter.Frame(Arrays.copyOf(state, FrameExporter.STRIDE * total),
+                        Arrays.copyOf(color, total), List.of()));
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.kloneborn;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.List;
+
+import javafx.geometry.Point2D;
+
+/**
+ * Wire format shared by {@link TileWorker} and {@link TileCoordinator}. Every
+ * message is big endian {@link DataOutputStream} data over TCP:
+ * <ul>
+ * <li><b>Hello</b>, once when a connection opens: int {@link #MAGIC}, int
+ * index of the sending tile.</li>
+ * <li><b>Exchange</b>, every tick in both directions between neighbouring
+ * tiles: int migrant count, then per migrant byte species, int id and double
+ * x, y, velocity x, velocity y, wander x, wander y, wander clock; int halo
+ * count, then per halo boid byte species and float x, y, velocity x,
+ * velocity y. Migrants change owner, so they keep full precision and carry on
+ * wandering where they left off; halo boids are only looked at for one
+ * tick.</li>
+ * <li><b>Snapshot</b>, from every tile to the coordinator every snapshot
+ * interval: long tick, int boid count, then per boid byte species and float
+ * x, y, heading x, heading y. A tick of {@link #END} closes the stream.</li>
+ * </ul>
+ */
+final class TileProtocol {
+    static final int MAGIC = 0x424F4944;
+    static final long END = -1;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final long CONNECT_TIMEOUT_MILLIS = 30_000;
+    private static final long RETRY_MILLIS = 100;
+
+    private TileProtocol() {
+    }
+
+    /**
+     * One end of a connection with buffered streams.
+     */
+    static final class Link implements AutoCloseable {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+
+        Link(Socket socket) throws IOException {
+            socket.setTcpNoDelay(true);
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE));
+        }
+
+        void sendHello(int tile) throws IOException {
+            out.writeInt(MAGIC);
+            out.writeInt(tile);
+            out.flush();
+        }
+
+        /**
+         * @return The tile index of the other end.
+         */
+        int receiveHello() throws IOException {
+            int magic = in.readInt();
+            if (magic != MAGIC)
+                throw new IOException(String.format("Not a tile connection, got magic 0x%08x", magic));
+            return in.readInt();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    static void writeMigrant(DataOutputStream out, Boid boid) throws IOException {
+        out.writeByte(boid.getSpecies().getIndex());
+        out.writeInt(boid.getId());
+        out.writeDouble(boid.location.getX());
+        out.writeDouble(boid.location.getY());
+        out.writeDouble(boid.velocity.getX());
+        out.writeDouble(boid.velocity.getY());
+        out.writeDouble(boid.getWanderX());
+        out.writeDouble(boid.getWanderY());
+        out.writeDouble(boid.getWanderClock());
+    }
+
+    /**
+     * Read a migrant into {@code boid}, which takes its place. Whatever
+     * {@code boid} steered towards before does not carry over.
+     *
+     * @param species The species of the receiving flock, by index.
+     */
+    static void readMigrant(DataInputStream in, Boid boid, List<Species> species) throws IOException {
+        boid.setSpecies(species.get(in.readByte()));
+        boid.setId(in.readInt());
+        boid.setLocation(new Point2D(in.readDouble(), in.readDouble()));
+        boid.setVelocity(new Point2D(in.readDouble(), in.readDouble()));
+        boid.setWander(in.readDouble(), in.readDouble(), in.readDouble());
+        boid.setAcceleration(Point2D.ZERO);
+        boid.setSteering(Point2D.ZERO);
+    }
+
+    static void writeHalo(DataOutputStream out, Boid boid) throws IOException {
+        out.writeByte(boid.getSpecies().getIndex());
+        out.writeFloat((float) boid.location.getX());
+        out.writeFloat((float) boid.location.getY());
+        out.writeFloat((float) boid.velocity.getX());
+        out.writeFloat((float) boid.velocity.getY());
+    }
+
+    /**
+     * Read a halo boid into {@code ghost}.
+     *
+     * @param species The species of the receiving flock, by index.
+     */
+    static void readHalo(DataInputStream in, Boid ghost, List<Species> species) throws IOException {
+        ghost.setSpecies(species.get(in.readByte()));
+        ghost.setLocation(new Point2D(in.readFloat(), in.readFloat()));
+        ghost.setVelocity(new Point2D(in.readFloat(), in.readFloat()));
+    }
+
+    /**
+     * Connect to {@code address}, retrying while nothing listens there yet since
+     * the processes of a run start in no particular order.
+     */
+    static Link connect(InetSocketAddress address) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MILLIS;
+        while (true) {
+            try {
+                return new Link(new Socket(address.getHostString(), address.getPort()));
+            } catch (ConnectException e) {
+                if (System.currentTimeMillis() > deadline)
+                    throw new ConnectException("Nothing listening at " + address + " after "
+                            + CONNECT_TIMEOUT_MILLIS / 1000 + " s");
+                Thread.sleep(RETRY_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * @param spec {@code host:port}
+     */
+    static InetSocketAddress parseAddress(String spec) {
+        int colon = spec.lastIndexOf(':');
+        if (colon < 0)
+            throw new IllegalArgumentException("Expected host:port but got " + spec);
+        return InetSocketAddress.createUnresolved(spec.substring(0, colon),
+                Integer.parseInt(spec.substring(colon + 1)));
+    }
+}
@@ -0,0 +1,308 @@
+package com.kloneborn;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.ResourceBundle;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javafx.geometry.Point2D;
+
+/**
+ * One process of a distributed flock. The world is cut into {@code tiles}
+ * vertical strips of equal width and each worker owns the boids whose
+ * position falls in its strip.
+ * <p>
+ * Before every tick a worker sends each neighbouring strip the boids that have
+ * crossed into it, which it stops owning, and copies of the boids within
+ * {@link Boid#ALIGNMENT_RADIUS} of their shared border, which the neighbour
+ * keeps as its {@link Flock#getHalo() halo} for that tick. Halos are built
+ * before the migrants arrive, so a worker keeps the boids it just sent away in
+ * its own halo for the tick; otherwise neither side would see them as
+ * neighbours of the boids they left behind. Strips wrap around
+ * for migration like the world does, but as in a single flock no boid sees a
+ * neighbour across the edge of the world, so no halo crosses it. Every
+ * snapshot interval the worker sends its boids to the {@link TileCoordinator}.
+ * See {@link TileProtocol} for the messages.
+ * </p>
+ * <p>
+ * <b>Usage:</b>
+ * {@code java -cp <classpath> com.kloneborn.TileWorker <tile> [key=value ...]},
+ * or started with {@code -m} from a module path.
+ * {@link TileCoordinator} normally starts the workers; its documentation lists
+ * the keys. A worker also needs {@code peers}, the {@code host:port} every
+ * tile listens on in tile order, and {@code coordinator}, the
+ * {@code host:port} of the coordinator.
+ * </p>
+ */
+public final class TileWorker {
+    private static final String[] PARAMETERS = { "max_speed", "max_force", "alignment_force", "cohesion_force",
+            "seperation_force" };
+    private static final double START_SPEED = 2.0;
+
+    private final int tile;
+    private final int tiles;
+    private final double worldWidth;
+    private final double worldHeight;
+    private final double stripWidth;
+    private final double minX;
+    private final double maxX;
+    private final Flock flock;
+    // Reused as halo boids tick after tick
+    private final List<Boid> ghosts = new ArrayList<>();
+    // Boids that migrated away on an earlier tick, reused for arriving migrants
+    private final List<Boid> spares = new ArrayList<>();
+    private final List<Boid> migrantsLeft = new ArrayList<>();
+    private final List<Boid> migrantsRight = new ArrayList<>();
+    private final List<Boid> haloLeft = new ArrayList<>();
+    private final List<Boid> haloRight = new ArrayList<>();
+    // Writes run on their own threads so two workers sending to each other cannot both block
+    private final ExecutorService senders = Executors.newFixedThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "tile-sender");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private TileProtocol.Link left;
+    private TileProtocol.Link right;
+    private TileProtocol.Link coordinator;
+    private int ghostsUsed;
+
+    TileWorker(int tile, int tiles, double worldWidth, double worldHeight, FlockParameters parameters,
+            ResourceBundle bundle) {
+        if (tiles < 2)
+            throw new IllegalArgumentException("Need at least 2 tiles, got " + tiles);
+        if (tile < 0 || tile >= tiles)
+            throw new IllegalArgumentException("Tile " + tile + " out of range for " + tiles + " tiles");
+        this.stripWidth = worldWidth / tiles;
+        if (stripWidth < Boid.ALIGNMENT_RADIUS)
+            throw new IllegalArgumentException("Strips of " + stripWidth + " are narrower than the neighbour radius "
+                    + Boid.ALIGNMENT_RADIUS + "; use fewer tiles or a wider world");
+        this.tile = tile;
+        this.tiles = tiles;
+        this.worldWidth = worldWidth;
+        this.worldHeight = worldHeight;
+        this.minX = tile * stripWidth;
+        this.maxX = minX + stripWidth;
+        this.flock = new Flock(worldWidth, worldHeight);
+        flock.setSpecies(Species.load(bundle),
+                InteractionMatrix.parse(bundle.getString("default.species.interactions")));
+        flock.setParameters(parameters);
+    }
+
+    /**
+     * Listen on {@code own}, connect to the right neighbour, accept the left one
+     * and then connect to the coordinator.
+     */
+    void connect(InetSocketAddress own, InetSocketAddress rightPeer, InetSocketAddress coordinatorAddress)
+            throws IOException, InterruptedException {
+        try (ServerSocket server = new ServerSocket(own.getPort())) {
+            right = TileProtocol.connect(rightPeer);
+            right.sendHello(tile);
+            left = new TileProtocol.Link(server.accept());
+            int from = left.receiveHello();
+            if (from != Math.floorMod(tile - 1, tiles))
+                throw new IOException("Tile " + tile + " expected its left neighbour but tile " + from + " connected");
+        }
+        coordinator = TileProtocol.connect(coordinatorAddress);
+        coordinator.sendHello(tile);
+    }
+
+    /**
+     * Spawn {@code count} boids uniformly inside the strip, numbered from
+     * {@code firstId} on so their ids stay unique across tiles.
+     */
+    void spawn(int count, int firstId, long seed) {
+        Random random = new Random(seed);
+        for (int i = 0; i < count; i++) {
+            Boid boid = create(minX + random.nextDouble() * stripWidth, random.nextDouble() * worldHeight,
+                    Species.pick(flock.getSpecies(), random.nextDouble()).getIndex());
+            boid.setId(firstId + i);
+            double angle = random.nextDouble() * 2 * Math.PI;
+            boid.setVelocity(new Point2D(START_SPEED * Math.cos(angle), START_SPEED * Math.sin(angle)));
+            flock.getBoids().add(boid);
+        }
+    }
+
+    private Boid create(double x, double y, int species) {
+        Boid boid = new Boid(x, y);
+        boid.setSpecies(flock.getSpecies().get(species));
+        return boid;
+    }
+
+    /**
+     * Exchange migrants and halos with both neighbours, then advance the flock
+     * by {@code dt} milliseconds.
+     */
+    void tick(double dt) throws IOException, InterruptedException {
+        sortOut();
+        Future<Void> toLeft = senders.submit(send(left.out, migrantsLeft, haloLeft));
+        Future<Void> toRight = senders.submit(send(right.out, migrantsRight, haloRight));
+        flock.getHalo().clear();
+        ghostsUsed = 0;
+        // Only read by the senders until the next tick, so they can double as halo
+        flock.getHalo().addAll(migrantsLeft);
+        flock.getHalo().addAll(migrantsRight);
+        receive(left.in);
+        receive(right.in);
+        await(toLeft);
+        await(toRight);
+        flock.update(dt);
+    }
+
+    /**
+     * Move the boids that left the strip into the migrant lists and collect the
+     * ones near a border into the halo lists. The migrants of the last tick
+     * are done being sent and looked at, so they become spares.
+     */
+    private void sortOut() {
+        spares.addAll(migrantsLeft);
+        spares.addAll(migrantsRight);
+        migrantsLeft.clear();
+        migrantsRight.clear();
+        haloLeft.clear();
+        haloRight.clear();
+        List<Boid> boids = flock.getBoids();
+        int kept = 0;
+        for (int i = 0, n = boids.size(); i < n; i++) {
+            Boid boid = boids.get(i);
+            // A boid exactly on the far edge of the world belongs to the first strip
+            double x = boid.location.getX();
+            x -= worldWidth * Math.floor(x / worldWidth);
+            int owner = Math.min(tiles - 1, (int) (x / stripWidth));
+            if (owner != tile) {
+                // Boids that skipped a strip are forwarded again on the next tick
+                (owner == (tile + 1) % tiles ? migrantsRight : migrantsLeft).add(boid);
+                continue;
+            }
+            boids.set(kept++, boid);
+            if (tile > 0 && x - minX < Boid.ALIGNMENT_RADIUS)
+                haloLeft.add(boid);
+            if (tile < tiles - 1 && maxX - x < Boid.ALIGNMENT_RADIUS)
+                haloRight.add(boid);
+        }
+        boids.subList(kept, boids.size()).clear();
+    }
+
+    private static Callable<Void> send(DataOutputStream out, List<Boid> migrants, List<Boid> halo) {
+        return () -> {
+            out.writeInt(migrants.size());
+            for (Boid boid : migrants)
+                TileProtocol.writeMigrant(out, boid);
+            out.writeInt(halo.size());
+            for (Boid boid : halo)
+                TileProtocol.writeHalo(out, boid);
+            out.flush();
+            return null;
+        };
+    }
+
+    private void receive(DataInputStream in) throws IOException {
+        for (int i = in.readInt(); i > 0; i--) {
+            Boid boid = spares.isEmpty() ? create(0, 0, 0) : spares.remove(spares.size() - 1);
+            TileProtocol.readMigrant(in, boid, flock.getSpecies());
+            flock.getBoids().add(boid);
+        }
+        for (int i = in.readInt(); i > 0; i--) {
+            if (ghostsUsed == ghosts.size())
+                ghosts.add(create(0, 0, 0));
+            Boid ghost = ghosts.get(ghostsUsed++);
+            TileProtocol.readHalo(in, ghost, flock.getSpecies());
+            flock.getHalo().add(ghost);
+        }
+    }
+
+    private static void await(Future<Void> send) throws IOException, InterruptedException {
+        try {
+            send.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    void sendSnapshot(long tick) throws IOException {
+        DataOutputStream out = coordinator.out;
+        List<Boid> boids = flock.getBoids();
+        out.writeLong(tick);
+        out.writeInt(boids.size());
+        for (Boid boid : boids) {
+            out.writeByte(boid.getSpecies().getIndex());
+            out.writeFloat((float) boid.location.getX());
+            out.writeFloat((float) boid.location.getY());
+            out.writeFloat((float) boid.getHeadingX());
+            out.writeFloat((float) boid.getHeadingY());
+        }
+        out.flush();
+    }
+
+    void close() throws IOException {
+        coordinator.out.writeLong(TileProtocol.END);
+        coordinator.out.flush();
+        senders.shutdownNow();
+        left.close();
+        right.close();
+        coordinator.close();
+    }
+
+    Flock getFlock() {
+        return flock;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 0) {
+            System.err.println("Usage: TileWorker <tile> [key=value ...]");
+            System.exit(1);
+        }
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            int eq = args[i].indexOf('=');
+            if (eq < 0)
+                throw new IllegalArgumentException("Expected key=value but got " + args[i]);
+            options.put(args[i].substring(0, eq), args[i].substring(eq + 1));
+        }
+        int tile = Integer.parseInt(args[0]);
+        String[] peers = options.get("peers").split(",");
+        int tiles = peers.length;
+        int boids = Integer.parseInt(options.getOrDefault("boids", "20000"));
+        long ticks = Long.parseLong(options.getOrDefault("ticks", "1000"));
+        int snapshotInterval = Integer.parseInt(options.getOrDefault("snapshot_interval", "10"));
+        double dt = Double.parseDouble(options.getOrDefault("dt", String.valueOf(1000 / Vehicle.REFERENCE_RATE)));
+
+        ResourceBundle bundle = ResourceBundle.getBundle("com.kloneborn.system");
+        double[] values = new double[PARAMETERS.length];
+        for (int p = 0; p < PARAMETERS.length; p++)
+            values[p] = Double.parseDouble(
+                    options.getOrDefault(PARAMETERS[p], bundle.getString("default.slider." + PARAMETERS[p])));
+        FlockParameters parameters = new FlockParameters(values[0], values[1], values[2], values[3], values[4], true,
+                true, true);
+
+        String side = String.valueOf(Math.ceil(Math.sqrt(boids) * 40));
+        TileWorker worker = new TileWorker(tile, tiles, Double.parseDouble(options.getOrDefault("world_width", side)),
+                Double.parseDouble(options.getOrDefault("world_height", side)), parameters, bundle);
+        worker.getFlock().setSubsteps(Integer.parseInt(options.getOrDefault("substeps", "1")));
+        // Every tile spawns its share of a uniform flock, the first ones one boid more if it does not divide
+        worker.spawn(boids / tiles + (tile < boids % tiles ? 1 : 0),
+                tile * (boids / tiles) + Math.min(tile, boids % tiles),
+                Long.parseLong(options.getOrDefault("seed", "1")) * 31 + tile);
+        worker.connect(TileProtocol.parseAddress(peers[tile]), TileProtocol.parseAddress(peers[(tile + 1) % tiles]),
+                TileProtocol.parseAddress(options.get("coordinator")));
+        for (long t = 0; t < ticks; t++) {
+            worker.tick(dt);
+            if ((t + 1) % snapshotInterval == 0)
+                worker.sendSnapshot(t + 1);
+        }
+        worker.close();
+    }
+}
@@ -1,19 +1,35 @@
 package com.kloneborn;
 
-import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
 
 import javafx.geometry.Point2D;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.paint.Color;
 
+/**
+ * Point mass steered by forces. Speeds, forces and the wander turn rate are
+ * given per tick at {@link #REFERENCE_RATE} ticks per second, so the values
+ * tuned for the default update rate keep their meaning at any other rate:
+ * {@link #update(double, int)} scales them by the time that actually passed.
+ */
 public class Vehicle {
+    /**
+     * Updates per second the per tick quantities are expressed at.
+     */
+    public static final double REFERENCE_RATE = 60.0;
+
     protected Point2D location;
     protected Point2D velocity;
     protected Point2D acceleration;
     protected double radius;
     protected double maxForce;
     protected double maxSpeed;
-    protected double angle;
+    // Unit vector along the velocity; the angle is only derived from it on demand
+    protected double headingX = 1.0;
+    protected double headingY = 0.0;
+    private double angle;
+    private boolean angleDirty = true;
 
     public Vehicle(double x, double y) {
         this.location = new Point2D(x, y);
@@ -22,7 +38,6 @@ public class Vehicle {
         this.radius = 3.0;
         this.maxForce = 0.1;
         this.maxSpeed = 4.0;
-        this.angle = 0;
     }
 
     public Vehicle(Point2D location, Point2D velocity, Point2D acceleration, double radius, double maxForce,
@@ -36,40 +51,196 @@ public class Vehicle {
     }
 
     public void seek(Point2D target) {
+        seek(target, 1.0);
+    }
+
+    public void seek(Point2D target, double weight) {
         Point2D desired = target.subtract(location);
         desired = desired.normalize();
         desired = desired.multiply(maxSpeed);
         Point2D steer = desired.subtract(velocity);
-        applyForce(steer);
+        applyForce(steer.multiply(weight));
+    }
+
+    private static final double WANDER_ANGLE_CHANGE = 0.1;
+    private static final double INITIAL_WANDER_ANGLE = 45.0;
+
+    // Precomputed rotations spanning [-WANDER_ANGLE_CHANGE / 2, WANDER_ANGLE_CHANGE / 2)
+    private static final int WANDER_STEPS = 256;
+    private static final double[] WANDER_COS = new double[WANDER_STEPS];
+    private static final double[] WANDER_SIN = new double[WANDER_STEPS];
+
+    static {
+        for (int i = 0; i < WANDER_STEPS; i++) {
+            double delta = (i / (double) WANDER_STEPS - 0.5) * WANDER_ANGLE_CHANGE;
+            WANDER_COS[i] = Math.cos(delta);
+            WANDER_SIN[i] = Math.sin(delta);
+        }
     }
 
     private double wanderRadius = 50.0;
     private double wanderDistance = 100.0;
-    private double wanderAngleChange = 0.1;
 
-    private double wanderAngle = 45.0;
+    private double wanderX = Math.cos(INITIAL_WANDER_ANGLE);
+    private double wanderY = Math.sin(INITIAL_WANDER_ANGLE);
+    // Reference ticks elapsed since the wander direction last turned
+    private double wanderClock;
+    private SplittableRandom random;
 
     public Point2D wander() {
-        // Update the wander angle with some randomness
-        wanderAngle += (Math.random() * wanderAngleChange - wanderAngleChange * 0.5);
+        turnWander();
+        return wanderTarget();
+    }
+
+    private void turnWander() {
+        // Rotate the wander direction by a small random step from the table
+        int step = nextRandom(WANDER_STEPS);
+        double c = WANDER_COS[step];
+        double s = WANDER_SIN[step];
+        double x = wanderX * c - wanderY * s;
+        double y = wanderX * s + wanderY * c;
+
+        // First order renormalisation keeps rounding drift off the unit circle
+        double n = 0.5 * (3.0 - (x * x + y * y));
+        wanderX = x * n;
+        wanderY = y * n;
+    }
+
+    /**
+     * @return A random value in {@code [0, bound)} from this vehicle's own
+     *         stream if it has one.
+     */
+    int nextRandom(int bound) {
+        return random != null ? random.nextInt(bound) : ThreadLocalRandom.current().nextInt(bound);
+    }
+
+    /**
+     * @param random Stream for this vehicle's random choices, such as its
+     *               wandering, or {@code null} to draw from
+     *               {@link ThreadLocalRandom}. Give each vehicle its own stream,
+     *               split off a seeded one, to make a run reproducible.
+     */
+    public void setRandom(SplittableRandom random) {
+        this.random = random;
+    }
+
+    double getWanderX() {
+        return wanderX;
+    }
+
+    double getWanderY() {
+        return wanderY;
+    }
+
+    double getWanderClock() {
+        return wanderClock;
+    }
 
-        // Calculate the new wander position
-        double x = location.getX() + wanderRadius * Math.cos(wanderAngle);
-        double y = location.getY() + wanderRadius * Math.sin(wanderAngle);
+    /**
+     * Carry on wandering the way another vehicle did, for a vehicle that takes
+     * its place.
+     */
+    void setWander(double x, double y, double clock) {
+        this.wanderX = x;
+        this.wanderY = y;
+        this.wanderClock = clock;
+    }
 
-        return new Point2D(x, y);
+    private Point2D wanderTarget() {
+        return new Point2D(location.getX() + wanderRadius * wanderX, location.getY() + wanderRadius * wanderY);
     }
 
+    /**
+     * Advance by one reference tick.
+     */
     void update() {
-        Point2D wanderingForce = wander();
+        update(1.0, 1);
+    }
+
+    /**
+     * Integrate the forces applied since the last update over {@code step}
+     * reference ticks, split into {@code substeps} equal parts. The forces are
+     * held for the whole step. Each substep adds {@link #substepForce()} for
+     * forces that depend on where the vehicle is, limits the speed, moves by
+     * the new velocity and calls {@link #afterSubstep()}.
+     */
+    void update(double step, int substeps) {
+        update(step, substeps, maxSpeed, maxForce);
+    }
+
+    /**
+     * Like {@link #update(double, int)}, limited by the given speed and force
+     * instead of this vehicle's own, for vehicles that share their limits.
+     */
+    void update(double step, int substeps, double maxSpeed, double maxForce) {
+        // Turn once per reference tick so wandering looks the same at any rate
+        wanderClock += step;
+        for (; wanderClock >= 1; wanderClock--)
+            turnWander();
+        Point2D wanderingForce = wanderTarget();
         wanderingForce = wanderingForce.multiply(0.5);
         wanderingForce = limit(wanderingForce, maxForce);
         applyForce(wanderingForce);
-        this.velocity = velocity.add(acceleration);
-        this.velocity = limit(velocity, maxSpeed);
-        this.location = location.add(velocity);
+        double h = step / substeps;
+        for (int i = 0; i < substeps; i++) {
+            Point2D force = acceleration.add(substepForce());
+            this.velocity = limit(velocity.add(force.getX() * h, force.getY() * h), maxSpeed);
+            this.location = location.add(velocity.getX() * h, velocity.getY() * h);
+            afterSubstep();
+        }
         this.acceleration = acceleration.multiply(0);
-        this.angle = Math.atan2(velocity.getY(), velocity.getX()) + Math.PI / 2;
+        updateHeading();
+    }
+
+    /**
+     * @return Force added to the held forces for the next substep only, looked
+     *         up at the current location. None by default.
+     */
+    protected Point2D substepForce() {
+        return Point2D.ZERO;
+    }
+
+    /**
+     * Called after every substep has moved the vehicle. Does nothing by
+     * default.
+     */
+    protected void afterSubstep() {
+    }
+
+    private void updateHeading() {
+        double vx = velocity.getX();
+        double vy = velocity.getY();
+        double speedSq = vx * vx + vy * vy;
+        if (speedSq > 0) {
+            double inv = 1.0 / Math.sqrt(speedSq);
+            headingX = vx * inv;
+            headingY = vy * inv;
+            angleDirty = true;
+        }
+    }
+
+    /**
+     * Unit vector pointing along the current velocity.
+     */
+    public double getHeadingX() {
+        return headingX;
+    }
+
+    public double getHeadingY() {
+        return headingY;
+    }
+
+    /**
+     * Rotation of the vehicle in radians, measured so that {@code 0} points up.
+     * Only computed when a renderer asks for it; steering and drawing use the
+     * heading vector directly.
+     */
+    public double getAngle() {
+        if (angleDirty) {
+            angle = Math.atan2(headingY, headingX) + Math.PI / 2;
+            angleDirty = false;
+        }
+        return angle;
     }
 
     void draw(GraphicsContext gc) {
@@ -101,6 +272,7 @@ public class Vehicle {
 
     public void setVelocity(Point2D velocity) {
         this.velocity = velocity;
+        updateHeading();
     }
 
     public Point2D getAcceleration() {
@@ -136,10 +308,12 @@ public class Vehicle {
     }
 
     public static Point2D limit(Point2D vector, double mag) {
-        double currentMagnitude = Math.hypot(vector.getX(), vector.getY());
+        double x = vector.getX();
+        double y = vector.getY();
+        double magSq = x * x + y * y;
 
-        if (currentMagnitude > mag) {
-            double scaleFactor = mag / currentMagnitude;
+        if (magSq > mag * mag) {
+            double scaleFactor = mag / Math.sqrt(magSq);
             return new Point2D(vector.getX() * scaleFactor, vector.getY() * scaleFactor);
         }
         return vector;
@@ -1,6 +1,8 @@
 module com.kloneborn {
     requires javafx.controls;
     requires javafx.fxml;
+    requires java.management;
+    requires jdk.management;
     requires transitive javafx.graphics;
     opens com.kloneborn to javafx.fxml;
     exports com.kloneborn;
@@ -0,0 +1,102 @@
+package com.kloneborn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class DistanceFieldTest {
+    private static final double WIDTH = 400;
+    private static final double HEIGHT = 300;
+    private static final double CELL = 5;
+    private static final double RANGE = 40;
+
+    @Test
+    void emptyFieldIsOutOfRangeEverywhere() {
+        DistanceField field = field();
+        int cell = field.cellAt(100, 100);
+        assertEquals(RANGE, field.distance(cell));
+        assertEquals(0, field.gradientX(cell));
+        assertEquals(0, field.gradientY(cell));
+    }
+
+    @Test
+    void distanceIsNegativeInsideAndClampedFarAway() {
+        DistanceField field = field();
+        field.add(new Obstacle.Circle(100, 100, 20));
+
+        assertTrue(field.distance(field.cellAt(100, 100)) < -15);
+        double near = field.distance(field.cellAt(130, 100));
+        assertTrue(near > 0 && near < 15, "distance " + near);
+        assertEquals(RANGE, field.distance(field.cellAt(300, 250)));
+    }
+
+    @Test
+    void gradientPointsAwayFromTheObstacle() {
+        DistanceField field = field();
+        field.add(new Obstacle.Circle(100, 100, 20));
+
+        int right = field.cellAt(130, 100);
+        assertTrue(field.gradientX(right) > 0.9, "gradient x " + field.gradientX(right));
+        int above = field.cellAt(100, 70);
+        assertTrue(field.gradientY(above) < -0.9, "gradient y " + field.gradientY(above));
+        // Also inside, so a boid that got in is pushed back out the near side
+        int inside = field.cellAt(112, 100);
+        assertTrue(field.gradientX(inside) > 0.9, "gradient x " + field.gradientX(inside));
+    }
+
+    @Test
+    void boxDistanceIsExactAlongItsSides() {
+        DistanceField field = field();
+        field.add(new Obstacle.Box(200, 100, 50, 40));
+        // Cell centres sit half a cell inside the cell, at 262.5 and 122.5
+        assertEquals(12.5, field.distance(field.cellAt(261, 121)), 1e-6);
+        assertEquals(-2.5, field.distance(field.cellAt(246, 121)), 1e-6);
+    }
+
+    @Test
+    void incrementalEditsMatchAFullRebuild() {
+        Obstacle.Circle moved = new Obstacle.Circle(80, 80, 25);
+        Obstacle.Box removed = new Obstacle.Box(150, 60, 40, 90);
+        Obstacle.Box wall = new Obstacle.Box(0, 280, WIDTH, 20);
+        Obstacle.Circle kept = new Obstacle.Circle(300, 150, 30);
+        DistanceField edited = field();
+        edited.add(moved);
+        edited.add(removed);
+        edited.add(wall);
+        edited.add(kept);
+        edited.move(moved, 45, 30);
+        edited.remove(removed);
+        edited.move(kept, -20, 0);
+
+        DistanceField full = field();
+        full.add(new Obstacle.Circle(125, 110, 25));
+        full.add(new Obstacle.Box(0, 280, WIDTH, 20));
+        full.add(new Obstacle.Circle(280, 150, 30));
+
+        int cells = (int) (Math.ceil(WIDTH / CELL) * Math.ceil(HEIGHT / CELL));
+        for (int cell = 0; cell < cells; cell++) {
+            assertEquals(full.distance(cell), edited.distance(cell), 1e-5, "distance of cell " + cell);
+            assertEquals(full.gradientX(cell), edited.gradientX(cell), 1e-5, "gradient x of cell " + cell);
+            assertEquals(full.gradientY(cell), edited.gradientY(cell), 1e-5, "gradient y of cell " + cell);
+        }
+    }
+
+    @Test
+    void obstacleAtFindsTheTopmostObstacle() {
+        DistanceField field = field();
+        Obstacle below = new Obstacle.Box(50, 50, 100, 100);
+        Obstacle above = new Obstacle.Circle(100, 100, 10);
+        field.add(below);
+        field.add(above);
+        assertSame(above, field.obstacleAt(100, 100));
+        assertSame(below, field.obstacleAt(60, 60));
+        assertNull(field.obstacleAt(300, 250));
+    }
+
+    private static DistanceField field() {
+        return new DistanceField(WIDTH, HEIGHT, CELL, RANGE);
+    }
+}
@@ -0,0 +1,101 @@
+package com.kloneborn;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javafx.geometry.Point2D;
+import org.junit.jupiter.api.Test;
+
+class FlockAnalyticsTest {
+    private static final double SIDE = 600;
+    private static final double CLUSTER_RADIUS = 20;
+
+    @Test
+    void sampleMatchesMeasureFromScratch() {
+        List<Boid> boids = clumps(12, 40, 1);
+        FlockMetrics expected = FlockMetrics.measure(boids, SIDE, SIDE, CLUSTER_RADIUS);
+        FlockMetrics sampled = sample(boids, true);
+
+        assertTrue(expected.getClusters() > 1, "the clumps should not all merge");
+        assertEquals(expected.getClusters(), sampled.getClusters());
+        assertEquals(expected.getPolarization(), sampled.getPolarization(), 1e-9);
+        assertEquals(expected.getAngularMomentum(), sampled.getAngularMomentum(), 1e-9);
+        assertEquals(expected.getMeanNearestNeighbor(), sampled.getMeanNearestNeighbor(), 1e-9);
+        assertArrayEquals(expected.getNearestNeighborHistogram(), sampled.getNearestNeighborHistogram());
+    }
+
+    @Test
+    void mergingFromBothEndsCountsTheSameClusters() {
+        List<Boid> boids = clumps(20, 25, 2);
+        assertEquals(sample(boids, true).getClusters(), sample(boids, false).getClusters());
+        assertEquals(FlockMetrics.measure(boids, SIDE, SIDE, CLUSTER_RADIUS).getClusters(),
+                sample(boids, false).getClusters());
+    }
+
+    @Test
+    void chainOfBoidsIsOneCluster() {
+        // Each boid only reaches the next one, so the cluster only forms through union-find
+        List<Boid> boids = new ArrayList<>();
+        for (int i = 0; i < 30; i++)
+            boids.add(new Boid(10 + i * (CLUSTER_RADIUS - 1), 300));
+        boids.add(new Boid(550, 550));
+        assertEquals(2, FlockMetrics.measure(boids, SIDE, SIDE, CLUSTER_RADIUS).getClusters());
+        assertEquals(2, sample(boids, true).getClusters());
+    }
+
+    @Test
+    void flockPublishesSamplesOnItsInterval() {
+        Flock flock = new Flock(SIDE, SIDE);
+        flock.getBoids().addAll(clumps(4, 10, 3));
+        FlockAnalytics analytics = new FlockAnalytics(5, CLUSTER_RADIUS);
+        flock.setAnalytics(analytics);
+        assertEquals(-1, analytics.getLastSampleTick());
+        for (int t = 0; t < 7; t++)
+            flock.update();
+        assertEquals(5, analytics.getLastSampleTick());
+        assertTrue(analytics.getLatest().getClusters() >= 1);
+    }
+
+    /**
+     * Feed {@code boids} to a {@link FlockAnalytics} the way a flock tick does,
+     * with the neighbour candidates of a spatial grid.
+     */
+    private static FlockMetrics sample(List<Boid> boids, boolean mutual) {
+        SpatialGrid grid = new SpatialGrid(SIDE, SIDE, Boid.ALIGNMENT_RADIUS);
+        grid.rebuild(boids);
+        FlockAnalytics analytics = new FlockAnalytics(1, CLUSTER_RADIUS);
+        for (int i = 0; i < boids.size(); i++)
+            boids.get(i).slot = i;
+        analytics.begin(boids.size(), mutual);
+        List<Boid> candidates = new ArrayList<>();
+        for (Boid boid : boids) {
+            analytics.observe(boid);
+            candidates.clear();
+            grid.collect(boid.getLocation().getX(), boid.getLocation().getY(), Boid.ALIGNMENT_RADIUS, candidates);
+            analytics.observe(boid, candidates);
+        }
+        analytics.finish(0);
+        return analytics.getLatest();
+    }
+
+    private static List<Boid> clumps(int count, int size, long seed) {
+        Random random = new Random(seed);
+        List<Boid> boids = new ArrayList<>();
+        for (int c = 0; c < count; c++) {
+            double cx = 50 + random.nextDouble() * (SIDE - 100);
+            double cy = 50 + random.nextDouble() * (SIDE - 100);
+            for (int i = 0; i < size; i++) {
+                Boid boid = new Boid(cx + random.nextGaussian() * 15, cy + random.nextGaussian() * 15);
+                double angle = random.nextDouble() * 2 * Math.PI;
+                boid.setVelocity(new Point2D(Math.cos(angle), Math.sin(angle)));
+                boids.add(boid);
+            }
+        }
+        return boids;
+    }
+}
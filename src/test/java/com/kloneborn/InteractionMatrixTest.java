@@ -0,0 +1,61 @@
+package com.kloneborn;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class InteractionMatrixTest {
+
+    @Test
+    void parseReadsRowsThenColumns() {
+        InteractionMatrix matrix = InteractionMatrix.parse(" 1.0 , -2.0 ; 0.5, 0 ");
+        assertEquals(2, matrix.size());
+        assertEquals(1.0, matrix.get(0, 0));
+        assertEquals(-2.0, matrix.get(0, 1));
+        assertEquals(0.5, matrix.get(1, 0));
+        assertEquals(0.0, matrix.get(1, 1));
+    }
+
+    @Test
+    void asymmetricWeightsStayMutualWhileBothSidesReact() {
+        InteractionMatrix matrix = InteractionMatrix.parse("1,-3;0.25,1");
+        assertEquals(-3, matrix.get(0, 1));
+        assertEquals(0.25, matrix.get(1, 0));
+        assertTrue(matrix.isMutual());
+    }
+
+    @Test
+    void oneSidedInteractionIsNotMutual() {
+        InteractionMatrix matrix = InteractionMatrix.parse("1,1;0,1");
+        assertFalse(matrix.isMutual());
+        assertArrayEquals(new int[] { 0, 1 }, matrix.interacting(0));
+        // Species 1 ignores species 0, so it never scans it
+        assertArrayEquals(new int[] { 1 }, matrix.interacting(1));
+    }
+
+    @Test
+    void singleSpeciesFlocksWithItself() {
+        InteractionMatrix matrix = InteractionMatrix.single();
+        assertEquals(1, matrix.size());
+        assertTrue(matrix.isMutual());
+        assertArrayEquals(new int[] { 0 }, matrix.interacting(0));
+    }
+
+    @Test
+    void parseRejectsRaggedRows() {
+        assertThrows(IllegalArgumentException.class, () -> InteractionMatrix.parse("1,2;3"));
+        assertThrows(IllegalArgumentException.class, () -> InteractionMatrix.parse("1;2,3"));
+        assertThrows(IllegalArgumentException.class, () -> InteractionMatrix.parse("1,2,3;4,5,6"));
+    }
+
+    @Test
+    void parseRejectsWeightsThatAreNotNumbers() {
+        assertThrows(NumberFormatException.class, () -> InteractionMatrix.parse("1,x;0,1"));
+        assertThrows(NumberFormatException.class, () -> InteractionMatrix.parse(""));
+        assertThrows(NumberFormatException.class, () -> InteractionMatrix.parse("1,,2;0,1,1;1,1,1"));
+    }
+}
@@ -0,0 +1,102 @@
+package com.kloneborn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class SpatialGridTest {
+    private static final double CELL = 10.0;
+
+    @Test
+    void mortonInterleavesColumnAndRow() {
+        assertEquals(0, SpatialGrid.morton(0, 0));
+        assertEquals(1, SpatialGrid.morton(1, 0));
+        assertEquals(2, SpatialGrid.morton(0, 1));
+        assertEquals(15, SpatialGrid.morton(3, 3));
+        assertEquals(0b101010, SpatialGrid.morton(0, 7));
+    }
+
+    @Test
+    void rebuildOrdersBoidsAlongTheZCurve() {
+        List<Boid> boids = scatter(500, 80, 80, 1);
+        SpatialGrid grid = new SpatialGrid(80, 80, CELL);
+        grid.rebuild(boids);
+        List<Boid> ordered = new ArrayList<>(boids);
+        assertEquals(boids.size(), grid.copyOrderTo(ordered, 0));
+
+        assertEquals(new HashSet<>(boids), new HashSet<>(ordered));
+        for (int i = 1; i < ordered.size(); i++) {
+            Boid previous = ordered.get(i - 1);
+            Boid current = ordered.get(i);
+            int a = code(previous);
+            int b = code(current);
+            assertTrue(a <= b, "cell " + a + " came before cell " + b);
+            // Boids sharing a cell keep their list order
+            if (a == b)
+                assertTrue(boids.indexOf(previous) < boids.indexOf(current));
+        }
+    }
+
+    @Test
+    void collectFindsTheSameNeighboursAsABruteForceScan() {
+        double width = 235;
+        double height = 170;
+        double radius = 25;
+        List<Boid> boids = scatter(800, width, height, 2);
+        SpatialGrid grid = new SpatialGrid(width, height, radius);
+        grid.rebuild(boids);
+
+        Random random = new Random(3);
+        List<Boid> candidates = new ArrayList<>();
+        for (int q = 0; q < 200; q++) {
+            double x = random.nextDouble() * width;
+            double y = random.nextDouble() * height;
+            candidates.clear();
+            grid.collect(x, y, radius, candidates);
+            assertEquals(new HashSet<>(candidates).size(), candidates.size(), "a boid was collected twice");
+
+            Set<Boid> found = new HashSet<>();
+            for (Boid boid : candidates)
+                if (boid.getLocation().distance(x, y) <= radius)
+                    found.add(boid);
+            Set<Boid> expected = new HashSet<>();
+            for (Boid boid : boids)
+                if (boid.getLocation().distance(x, y) <= radius)
+                    expected.add(boid);
+            assertEquals(expected, found);
+        }
+    }
+
+    @Test
+    void rebuildAfterShrinkingOnlyIndexesTheRemainingBoids() {
+        List<Boid> boids = scatter(300, 100, 100, 4);
+        SpatialGrid grid = new SpatialGrid(100, 100, CELL);
+        grid.rebuild(boids);
+        List<Boid> remaining = new ArrayList<>(boids.subList(0, 120));
+        grid.rebuild(remaining);
+
+        List<Boid> all = new ArrayList<>();
+        grid.collect(0, 0, 100, 100, all);
+        assertEquals(new HashSet<>(remaining), new HashSet<>(all));
+        assertEquals(remaining.size(), all.size());
+    }
+
+    private static int code(Boid boid) {
+        return SpatialGrid.morton((int) (boid.getLocation().getX() / CELL), (int) (boid.getLocation().getY() / CELL));
+    }
+
+    private static List<Boid> scatter(int count, double width, double height, long seed) {
+        Random random = new Random(seed);
+        List<Boid> boids = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            boids.add(new Boid(random.nextDouble() * width, random.nextDouble() * height));
+        return boids;
+    }
+}
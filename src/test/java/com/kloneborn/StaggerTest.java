@@ -0,0 +1,115 @@
+package com.kloneborn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import javafx.geometry.Point2D;
+import org.junit.jupiter.api.Test;
+
+class StaggerTest {
+    // Marks a boid whose steering the tick did not recompute
+    private static final Point2D UNTOUCHED = new Point2D(0, 0);
+
+    @Test
+    void coprimeStrideVisitsEveryCandidateOnce() {
+        for (int n = 1; n <= 64; n++) {
+            for (int start = 0; start < n; start++) {
+                int stride = Boid.coprimeStride(n, start);
+                assertTrue(stride >= 1 && stride <= Math.max(1, n - 1), "stride " + stride + " for " + n);
+                Set<Integer> visited = new HashSet<>();
+                for (int k = 0, i = start; k < n; k++, i = (i + stride) % n)
+                    visited.add(i);
+                assertEquals(n, visited.size(), "stride " + stride + " for " + n);
+            }
+        }
+    }
+
+    @Test
+    void everyBoidSteersOncePerInterval() {
+        assertSteeredOncePerInterval(flock(600, false), 4);
+    }
+
+    @Test
+    void everyBoidSteersOncePerIntervalInParallel() {
+        assertSteeredOncePerInterval(flock(2_500, true), 5);
+    }
+
+    @Test
+    void phasesStayEvenWhateverTheIds() {
+        // Ids that all share a phase, as a flock built from several reserved blocks could have
+        Flock flock = new Flock(400, 400);
+        Random random = new Random(5);
+        for (int i = 0; i < 400; i++)
+            flock.getBoids().add(new Boid(random.nextDouble() * 400, random.nextDouble() * 400, 4 * i));
+        flock.setStaggerInterval(4);
+        for (int t = 0; t < 8; t++)
+            assertEquals(100, steeredBy(flock).size());
+    }
+
+    @Test
+    void adaptiveStaggerWaitsForTheSettlePeriod() {
+        Flock flock = flock(50, false);
+        flock.setAdaptiveStagger(true);
+        // No tick fits, so the smoothed time stays over budget
+        flock.setTickBudget(1e-9);
+        for (int t = 1; t < Flock.STAGGER_SETTLE_TICKS; t++)
+            flock.update();
+        assertEquals(1, flock.getStaggerInterval());
+        flock.update();
+        assertEquals(2, flock.getStaggerInterval());
+
+        // Every tick fits easily, so it comes back down after the same wait
+        flock.setTickBudget(1e9);
+        for (int t = 1; t < Flock.STAGGER_SETTLE_TICKS; t++)
+            flock.update();
+        assertEquals(2, flock.getStaggerInterval());
+        flock.update();
+        assertEquals(1, flock.getStaggerInterval());
+    }
+
+    private static void assertSteeredOncePerInterval(Flock flock, int interval) {
+        flock.setStaggerInterval(interval);
+        List<Boid> boids = flock.getBoids();
+        for (int round = 0; round < 3; round++) {
+            Set<Boid> steered = new HashSet<>();
+            for (int t = 0; t < interval; t++)
+                for (Boid boid : steeredBy(flock))
+                    assertTrue(steered.add(boid), "boid " + boid.getId() + " steered twice in one round");
+            assertEquals(new HashSet<>(boids), steered);
+        }
+    }
+
+    /**
+     * Run one tick of {@code flock}.
+     *
+     * @return The boids whose steering the tick recomputed.
+     */
+    private static Set<Boid> steeredBy(Flock flock) {
+        for (Boid boid : flock.getBoids())
+            boid.setSteering(UNTOUCHED);
+        flock.update();
+        Set<Boid> steered = new HashSet<>();
+        for (Boid boid : flock.getBoids())
+            if (boid.getSteering() != UNTOUCHED)
+                steered.add(boid);
+        return steered;
+    }
+
+    private static Flock flock(int count, boolean parallel) {
+        double side = Math.sqrt(count) * 20;
+        Flock flock = new Flock(side, side);
+        flock.setAligning(true);
+        flock.setCohering(true);
+        flock.setSeparating(true);
+        flock.setParallel(parallel);
+        Random random = new Random(count);
+        for (int i = 0; i < count; i++)
+            flock.getBoids().add(new Boid(random.nextDouble() * side, random.nextDouble() * side));
+        return flock;
+    }
+}
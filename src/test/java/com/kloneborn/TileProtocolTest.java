@@ -0,0 +1,107 @@
+package com.kloneborn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+
+import javafx.geometry.Point2D;
+import org.junit.jupiter.api.Test;
+
+class TileProtocolTest {
+    private static final List<Species> SPECIES = List.of(new Species(0, "prey"), new Species(1, "predator"));
+
+    @Test
+    void migrantKeepsIdentityPositionAndWandering() throws IOException {
+        Boid sent = new Boid(123.456789012, 98.7654321, 4242);
+        sent.setSpecies(SPECIES.get(1));
+        sent.setVelocity(new Point2D(-1.23456789, 2.3456789));
+        sent.setWander(0.6, -0.8, 0.375);
+
+        Boid spare = new Boid(0, 0, 7);
+        spare.setAcceleration(new Point2D(3, 4));
+        spare.setSteering(new Point2D(5, 6));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            TileProtocol.writeMigrant(out, sent);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        TileProtocol.readMigrant(in, spare, SPECIES);
+
+        assertEquals(4242, spare.getId());
+        assertSame(SPECIES.get(1), spare.getSpecies());
+        // Migrants change owner, so nothing is rounded
+        assertEquals(sent.getLocation(), spare.getLocation());
+        assertEquals(sent.getVelocity(), spare.getVelocity());
+        assertEquals(sent.getHeadingX(), spare.getHeadingX());
+        assertEquals(sent.getHeadingY(), spare.getHeadingY());
+        assertEquals(0.6, spare.getWanderX());
+        assertEquals(-0.8, spare.getWanderY());
+        assertEquals(0.375, spare.getWanderClock());
+        // What the spare steered towards before does not carry over
+        assertEquals(Point2D.ZERO, spare.getAcceleration());
+        assertEquals(Point2D.ZERO, spare.getSteering());
+        assertEquals(-1, in.read(), "the whole record should be read");
+    }
+
+    @Test
+    void haloBoidRoundTripsAtFloatPrecision() throws IOException {
+        Boid sent = new Boid(321.123456789, 45.6789, 1);
+        sent.setSpecies(SPECIES.get(0));
+        sent.setVelocity(new Point2D(0.333333333, -3.99999));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            TileProtocol.writeHalo(out, sent);
+        }
+        Boid ghost = new Boid(0, 0, 2);
+        ghost.setSpecies(SPECIES.get(1));
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        TileProtocol.readHalo(in, ghost, SPECIES);
+
+        assertSame(SPECIES.get(0), ghost.getSpecies());
+        assertEquals((float) 321.123456789, ghost.getLocation().getX());
+        assertEquals((float) 45.6789, ghost.getLocation().getY());
+        assertEquals((float) 0.333333333, ghost.getVelocity().getX());
+        assertEquals((float) -3.99999, ghost.getVelocity().getY());
+        assertEquals(-1, in.read(), "the whole record should be read");
+    }
+
+    @Test
+    void exchangeOfSeveralRecordsReadsBackInOrder() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            for (int i = 0; i < 3; i++) {
+                Boid boid = new Boid(i * 10, i * 20, 100 + i);
+                boid.setSpecies(SPECIES.get(i % 2));
+                TileProtocol.writeMigrant(out, boid);
+            }
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        Boid boid = new Boid(0, 0, 0);
+        for (int i = 0; i < 3; i++) {
+            TileProtocol.readMigrant(in, boid, SPECIES);
+            assertEquals(100 + i, boid.getId());
+            assertSame(SPECIES.get(i % 2), boid.getSpecies());
+            assertEquals(new Point2D(i * 10, i * 20), boid.getLocation());
+        }
+        assertThrows(EOFException.class, () -> TileProtocol.readMigrant(in, boid, SPECIES));
+    }
+
+    @Test
+    void parseAddressSplitsAtTheLastColon() {
+        InetSocketAddress address = TileProtocol.parseAddress("example.org:47001");
+        assertEquals("example.org", address.getHostString());
+        assertEquals(47001, address.getPort());
+        assertEquals(8080, TileProtocol.parseAddress("::1:8080").getPort());
+        assertThrows(IllegalArgumentException.class, () -> TileProtocol.parseAddress("localhost"));
+    }
+}